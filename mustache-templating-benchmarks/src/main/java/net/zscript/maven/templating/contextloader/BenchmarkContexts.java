@@ -0,0 +1,150 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates the context files used by the benchmarks. The content is entirely determined by the parameters, so results remain comparable between runs and versions.
+ */
+public final class BenchmarkContexts {
+    /** The number of fields in a "small" context file. */
+    public static final int SMALL_FIELD_COUNT = 5;
+    /** The number of fields in a "large" context file. */
+    public static final int LARGE_FIELD_COUNT = 500;
+
+    private BenchmarkContexts() {
+    }
+
+    /**
+     * @param fileSize either "small" or "large"
+     * @return the number of fields in a context file of that size
+     */
+    public static int fieldCount(final String fileSize) {
+        switch (fileSize) {
+        case "small":
+            return SMALL_FIELD_COUNT;
+        case "large":
+            return LARGE_FIELD_COUNT;
+        default:
+            throw new IllegalArgumentException("Unknown file size: " + fileSize);
+        }
+    }
+
+    /**
+     * Creates a YAML context suitable for the benchmark template, describing a class with the given number of fields.
+     *
+     * @param index      distinguishes this context from others
+     * @param fieldCount the number of fields
+     * @return the YAML text
+     */
+    public static String yaml(final int index, final int fieldCount) {
+        final StringBuilder sb = new StringBuilder()
+                .append("name: context-").append(index).append('\n')
+                .append("package: net.zscript.example.generated\n")
+                .append("className: Generated").append(index).append('\n')
+                .append("description: A generated class, number ").append(index).append(", used for benchmarking\n")
+                .append("tags: [benchmark, generated, example-").append(index).append("]\n")
+                .append("fields:\n");
+        for (int i = 0; i < fieldCount; i++) {
+            sb.append("  - name: field").append(i).append('\n')
+                    .append("    capitalName: Field").append(i).append('\n')
+                    .append("    type: ").append(i % 3 == 0 ? "int" : i % 3 == 1 ? "String" : "long").append('\n')
+                    .append("    description: \"Field ").append(i).append(" of context ").append(index).append(", with some descriptive text\"\n");
+            if (i % 2 == 0) {
+                sb.append("    defaultValue: ").append(i).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a JSON context with the same content as {@link #yaml(int, int)}.
+     *
+     * @param index      distinguishes this context from others
+     * @param fieldCount the number of fields
+     * @return the JSON text
+     */
+    public static String json(final int index, final int fieldCount) {
+        final StringBuilder sb = new StringBuilder()
+                .append("{\n")
+                .append("  \"name\": \"context-").append(index).append("\",\n")
+                .append("  \"package\": \"net.zscript.example.generated\",\n")
+                .append("  \"className\": \"Generated").append(index).append("\",\n")
+                .append("  \"description\": \"A generated class, number ").append(index).append(", used for benchmarking\",\n")
+                .append("  \"tags\": [\"benchmark\", \"generated\", \"example-").append(index).append("\"],\n")
+                .append("  \"fields\": [");
+        for (int i = 0; i < fieldCount; i++) {
+            sb.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"name\": \"field").append(i).append('"')
+                    .append(", \"capitalName\": \"Field").append(i).append('"')
+                    .append(", \"type\": \"").append(i % 3 == 0 ? "int" : i % 3 == 1 ? "String" : "long").append('"')
+                    .append(", \"description\": \"Field ").append(i).append(" of context ").append(index).append(", with some descriptive text\"");
+            if (i % 2 == 0) {
+                sb.append(", \"defaultValue\": ").append(i);
+            }
+            sb.append('}');
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Writes a set of YAML context files into a directory.
+     *
+     * @param dir        the directory to write them in
+     * @param count      the number of files
+     * @param fieldCount the number of fields in each
+     * @return the files' paths, relative to the directory
+     * @throws IOException if writing fails
+     */
+    public static List<String> writeYamlFiles(final Path dir, final int count, final int fieldCount) throws IOException {
+        return writeFiles(dir, count, fieldCount, "yaml");
+    }
+
+    /**
+     * Writes a set of context files into a directory, in either format.
+     *
+     * @param dir        the directory to write them in
+     * @param count      the number of files
+     * @param fieldCount the number of fields in each
+     * @param format     either "yaml" or "json", which is also the files' suffix
+     * @return the files' paths, relative to the directory
+     * @throws IOException if writing fails
+     */
+    public static List<String> writeFiles(final Path dir, final int count, final int fieldCount, final String format) throws IOException {
+        final List<String> relativePaths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final String relativePath = "contexts/context-" + i + "." + format;
+            final Path   file         = dir.resolve(relativePath);
+            Files.createDirectories(file.getParent());
+            Files.write(file, (format.equals("json") ? json(i, fieldCount) : yaml(i, fieldCount)).getBytes(UTF_8));
+            relativePaths.add(relativePath);
+        }
+        return relativePaths;
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param dir the directory
+     * @throws IOException if deletion fails
+     */
+    public static void deleteRecursively(final Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
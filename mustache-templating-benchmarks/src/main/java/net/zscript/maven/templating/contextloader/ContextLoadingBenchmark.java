@@ -0,0 +1,78 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link YamlTemplatingPluginContextLoader#loadAndMap(LoadableEntities)} loading a batch of YAML files, both parsing them and (with the parsed context cache) decoding
+ * them. The same content in JSON files can also be loaded, by either the YAML loader or the {@link MultiFormatTemplatingPluginContextLoader}, which has its own JSON parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextLoadingBenchmark {
+    private static final int FILE_COUNT = 20;
+
+    @Param({ "small", "large" })
+    public String fileSize;
+
+    @Param({ "false", "true" })
+    public boolean parsedContextCache;
+
+    @Param({ "yaml", "json" })
+    public String fileFormat;
+
+    @Param({ "yaml", "multi-format" })
+    public String contextLoader;
+
+    private TemplatingPluginContextLoader loader;
+    private Path                          dir;
+    private LoadableEntities              entities;
+
+    @Setup
+    public void setUp() throws IOException {
+        loader = contextLoader.equals("multi-format") ? new MultiFormatTemplatingPluginContextLoader() : new YamlTemplatingPluginContextLoader();
+        dir = Files.createTempDirectory("mustache-benchmark");
+        final List<String> paths = BenchmarkContexts.writeFiles(dir, FILE_COUNT, BenchmarkContexts.fieldCount(fileSize), fileFormat);
+        entities = new LoadableEntities(dir.toUri(), paths, "java", FileSystems.getDefault());
+        if (parsedContextCache) {
+            entities = entities.withParsedContextCache(new ParsedContextCache(dir.resolve("cache"), Long.MAX_VALUE));
+            loader.loadAndMap(entities);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContexts.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<LoadableEntities.LoadedEntityScopes> loadAndMap() {
+        return loader.loadAndMap(entities);
+    }
+}
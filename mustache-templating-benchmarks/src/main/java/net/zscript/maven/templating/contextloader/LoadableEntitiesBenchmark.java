@@ -0,0 +1,63 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of {@link LoadableEntities#loadEntities} fanning out over many entities, with a trivial loader function, so that the cost is that of the entity wrapping
+ * and collection itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadableEntitiesBenchmark {
+    private static final FileSystem FS = FileSystems.getDefault();
+
+    @Param({ "1", "100", "10000" })
+    public int entityCount;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private LoadableEntities entities;
+
+    @Setup
+    public void setUp() {
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < entityCount; i++) {
+            paths.add("dir" + (i % 10) + "/context-" + i + ".yaml");
+        }
+        entities = new LoadableEntities(URI.create("file:///contexts/"), paths, "java", FS).withParallelLoading(parallel);
+    }
+
+    @Benchmark
+    public List<LoadableEntities.LoadedEntityScopes> loadEntities() {
+        return entities.loadEntities(entity -> singletonList(entity.withScopes(singletonList(entity.getRelativePath()), FS.getPath(entity.getRelativePath()))));
+    }
+}
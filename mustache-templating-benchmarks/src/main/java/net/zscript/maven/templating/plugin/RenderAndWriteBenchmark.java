@@ -0,0 +1,105 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.mustachejava.Mustache;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.zscript.maven.templating.contextloader.BenchmarkContexts;
+import net.zscript.maven.templating.contextloader.LoadableEntities;
+import net.zscript.maven.templating.contextloader.LoadableEntities.LoadedEntityScopes;
+import net.zscript.maven.templating.contextloader.YamlTemplatingPluginContextLoader;
+
+/**
+ * Measures the per-context cost of rendering a loaded context with the template, and of rendering and writing its output file, with and without the write-if-changed check (which
+ * after the first write always finds the content unchanged), and with each object handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderAndWriteBenchmark {
+    private static final int CONTEXT_COUNT = 20;
+
+    @Param({ "small", "large" })
+    public String fileSize;
+
+    @Param({ "true", "false" })
+    public boolean writeIfChanged;
+
+    @Param({ "reflection", "map", "accessor" })
+    public String objectHandler;
+
+    private Path                     dir;
+    private Mustache                 mustache;
+    private List<LoadedEntityScopes> contexts;
+    private OutputEncoder            outputEncoder;
+    private OutputFileWriter         outputWriter;
+    private int                      next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mustache-benchmark");
+        mustache = CompiledTemplate.compile(TemplateCompileBenchmark.createTemplateRoot("classpath", dir), TemplateCompileBenchmark.MAIN_TEMPLATE,
+                ObjectHandlerType.fromName(objectHandler)).getMustache();
+
+        final List<String> paths = BenchmarkContexts.writeYamlFiles(dir, CONTEXT_COUNT, BenchmarkContexts.fieldCount(fileSize));
+        contexts = new YamlTemplatingPluginContextLoader().loadAndMap(new LoadableEntities(dir.toUri(), paths, "java", FileSystems.getDefault()));
+        for (LoadedEntityScopes context : contexts) {
+            Files.createDirectories(outputPath(context).getParent());
+        }
+        outputEncoder = new OutputEncoder(UTF_8, OutputEncoder.DEFAULT_BUFFER_SIZE);
+        outputWriter = new OutputFileWriter(writeIfChanged, OutputEncoder.DEFAULT_BUFFER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContexts.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public byte[] render() throws MojoExecutionException {
+        return TemplatingBaseMojo.renderContext(outputEncoder, mustache, nextContext());
+    }
+
+    @Benchmark
+    public boolean renderAndWrite() throws MojoExecutionException, IOException {
+        final LoadedEntityScopes context = nextContext();
+        return outputWriter.write(outputPath(context), TemplatingBaseMojo.renderContext(outputEncoder, mustache, context));
+    }
+
+    private LoadedEntityScopes nextContext() {
+        next = (next + 1) % contexts.size();
+        return contexts.get(next);
+    }
+
+    private Path outputPath(final LoadedEntityScopes context) {
+        return dir.resolve("out").resolve(context.getRelativeOutputPath());
+    }
+}
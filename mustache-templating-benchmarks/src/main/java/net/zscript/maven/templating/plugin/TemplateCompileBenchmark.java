@@ -0,0 +1,100 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mustachejava.resolver.ClasspathResolver;
+import com.github.mustachejava.resolver.FileSystemResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.zscript.maven.templating.contextloader.BenchmarkContexts;
+
+/**
+ * Measures resolving and compiling a template (with partials), through each of the resolvers that the mojo chooses between for a local template directory and a "classpath:"
+ * one, and also the check which decides whether a template compiled by an earlier execution can be reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateCompileBenchmark {
+    static final String   TEMPLATE_RESOURCE_ROOT = "benchmark-templates";
+    static final String   MAIN_TEMPLATE          = "main.mustache";
+    static final String[] TEMPLATE_RESOURCES     = { MAIN_TEMPLATE, "partials/header.mustache", "partials/field.mustache" };
+
+    @Param({ "file", "classpath" })
+    public String resolver;
+
+    private Path             dir;
+    private TemplateRoot     templateRoot;
+    private CompiledTemplate compiled;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mustache-benchmark");
+        templateRoot = createTemplateRoot(resolver, dir);
+        compiled = CompiledTemplate.compile(templateRoot, MAIN_TEMPLATE, ObjectHandlerType.REFLECTION);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkContexts.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public CompiledTemplate compile() {
+        return CompiledTemplate.compile(templateRoot, MAIN_TEMPLATE, ObjectHandlerType.REFLECTION);
+    }
+
+    @Benchmark
+    public boolean revalidate() {
+        return compiled.isUpToDate();
+    }
+
+    /**
+     * Creates a template root for the benchmark templates, as the mojo would for the equivalent configuration.
+     *
+     * @param resolver either "file" (in which case the templates are copied into the directory) or "classpath"
+     * @param dir      a directory to copy the templates into
+     * @return the template root
+     * @throws IOException if copying fails
+     */
+    static TemplateRoot createTemplateRoot(final String resolver, final Path dir) throws IOException {
+        switch (resolver) {
+        case "file":
+            for (String resource : TEMPLATE_RESOURCES) {
+                final Path file = dir.resolve(resource);
+                Files.createDirectories(file.getParent());
+                try (InputStream in = TemplateCompileBenchmark.class.getClassLoader().getResourceAsStream(TEMPLATE_RESOURCE_ROOT + "/" + resource)) {
+                    Files.copy(in, file);
+                }
+            }
+            return new TemplateRoot("file:" + dir.toAbsolutePath().normalize(), new FileSystemResolver(dir.toFile()));
+        case "classpath":
+            return new TemplateRoot("classpath:" + TEMPLATE_RESOURCE_ROOT, new ClasspathResolver(TEMPLATE_RESOURCE_ROOT));
+        default:
+            throw new IllegalArgumentException("Unknown resolver: " + resolver);
+        }
+    }
+}
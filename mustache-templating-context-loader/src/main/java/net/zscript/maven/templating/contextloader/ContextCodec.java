@@ -0,0 +1,216 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact binary encoding for the object trees produced by parsers such as SnakeYAML: maps, lists and sets of strings, numbers, booleans, dates, byte arrays and nulls. Each
+ * value is a one-byte tag followed by its content; decoding reproduces the same classes (with insertion-ordered maps and sets), so templates behave identically whether a
+ * context was parsed or decoded.
+ */
+final class ContextCodec {
+    private static final byte NULL        = 0;
+    private static final byte TRUE        = 1;
+    private static final byte FALSE       = 2;
+    private static final byte INTEGER     = 3;
+    private static final byte LONG        = 4;
+    private static final byte BIG_INTEGER = 5;
+    private static final byte DOUBLE      = 6;
+    private static final byte FLOAT       = 7;
+    private static final byte BIG_DECIMAL = 8;
+    private static final byte STRING      = 9;
+    private static final byte DATE        = 10;
+    private static final byte BYTES       = 11;
+    private static final byte LIST        = 12;
+    private static final byte SET         = 13;
+    private static final byte MAP         = 14;
+
+    private ContextCodec() {
+    }
+
+    /**
+     * Encodes an object tree.
+     *
+     * @param out   where to write the encoded form
+     * @param value the root of the tree
+     * @throws IOException           if writing fails
+     * @throws NotEncodableException if the tree contains an unsupported type, or a cycle
+     */
+    static void write(final DataOutput out, final Object value) throws IOException {
+        write(out, value, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static void write(final DataOutput out, final Object value, final Set<Object> enclosing) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof List || value instanceof Set) {
+            enter(enclosing, value);
+            out.writeByte(value instanceof List ? LIST : SET);
+            out.writeInt(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                write(out, element, enclosing);
+            }
+            enclosing.remove(value);
+        } else if (value instanceof Map) {
+            enter(enclosing, value);
+            out.writeByte(MAP);
+            out.writeInt(((Map<?, ?>) value).size());
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                write(out, e.getKey(), enclosing);
+                write(out, e.getValue(), enclosing);
+            }
+            enclosing.remove(value);
+        } else {
+            throw new NotEncodableException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    private static void enter(final Set<Object> enclosing, final Object container) {
+        if (!enclosing.add(container)) {
+            throw new NotEncodableException("Recursive structure");
+        }
+    }
+
+    /**
+     * Decodes an object tree written by {@link #write(DataOutput, Object)}.
+     *
+     * @param in where to read the encoded form
+     * @return the root of the tree
+     * @throws IOException if reading fails, or the content is malformed
+     */
+    static Object read(final DataInput in) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case BIG_INTEGER:
+            return new BigInteger(readString(in));
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case BIG_DECIMAL:
+            return new BigDecimal(readString(in));
+        case STRING:
+            return readString(in);
+        case DATE:
+            return new Date(in.readLong());
+        case BYTES:
+            final byte[] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return bytes;
+        case LIST:
+            final int size = readLength(in);
+            final List<Object> list = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                list.add(read(in));
+            }
+            return list;
+        case SET:
+            final int setSize = readLength(in);
+            final Set<Object> set = new LinkedHashSet<>();
+            for (int i = 0; i < setSize; i++) {
+                set.add(read(in));
+            }
+            return set;
+        case MAP:
+            final int mapSize = readLength(in);
+            final Map<Object, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < mapSize; i++) {
+                final Object key = read(in);
+                map.put(key, read(in));
+            }
+            return map;
+        default:
+            throw new IOException("Unknown tag: " + tag);
+        }
+    }
+
+    private static void writeString(final DataOutput out, final String s) throws IOException {
+        // not writeUTF(), which is limited to 64K
+        final byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int readLength(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Thrown if an object tree can't be encoded.
+     */
+    static class NotEncodableException extends RuntimeException {
+        NotEncodableException(final String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the parsed content of fragment files which contexts include (eg with the YAML loader's {@code !include} tag), so that each fragment is parsed once, however many contexts
+ * include it, and a single copy of it is shared between them all. As it's shared, each fragment is made immutable: its maps, lists and sets are replaced by unmodifiable ones.
+ * <p>
+ * The plugin supplies a new cache to each execution (see {@link LoadableEntities#getFragmentCache()}), so that fragments are re-read each time, and it records the fragments
+ * which were included, so that changes to them can be detected by later builds.
+ * <p>
+ * This class is thread-safe. If several threads need the same fragment at once, then each may parse it, but only one copy is kept.
+ */
+public final class FragmentCache {
+    /** The fragments being parsed by each thread, innermost last, to detect fragments which (indirectly) include themselves. */
+    private static final ThreadLocal<Deque<URI>> IN_PROGRESS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final ConcurrentMap<URI, Object> fragments     = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, String> relativePaths = new ConcurrentHashMap<>();
+
+    /**
+     * Parses a fragment file's content.
+     */
+    @FunctionalInterface
+    public interface Parser {
+        Object parse(LoadableEntities.LoadableEntity fragment) throws IOException;
+    }
+
+    /**
+     * Returns the fragment's content, parsing it if it isn't already cached.
+     *
+     * @param fragment the fragment file
+     * @param parser   parses the fragment, if it isn't already cached; it may include other fragments, through this cache
+     * @return the fragment's content, made immutable
+     * @throws IOException if the fragment can't be read or parsed, or includes itself
+     */
+    public Object get(final LoadableEntities.LoadableEntity fragment, final Parser parser) throws IOException {
+        final URI    key    = fragment.getFullPath().normalize();
+        final Object cached = fragments.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Deque<URI> inProgress = IN_PROGRESS.get();
+        if (inProgress.contains(key)) {
+            throw new IOException("Fragment includes itself: " + key);
+        }
+        inProgress.addLast(key);
+        final Object value;
+        try {
+            value = freeze(parser.parse(fragment));
+        } finally {
+            inProgress.removeLast();
+        }
+        // recorded even if it's empty, so that content added to it later is noticed
+        relativePaths.putIfAbsent(key, fragment.getRelativePath());
+        if (value == null) {
+            return null;
+        }
+        final Object existing = fragments.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * @return the paths of all the fragments which have been included (even empty ones, which aren't cached), relative to the context root, sorted
+     */
+    public Collection<String> getRelativePaths() {
+        return Collections.unmodifiableSet(new TreeSet<>(relativePaths.values()));
+    }
+
+    /**
+     * @return the number of fragments in the cache
+     */
+    public int size() {
+        return fragments.size();
+    }
+
+    private static Object freeze(final Object value) {
+        if (value instanceof Map) {
+            final Map<Object, Object> map = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> map.put(k, freeze(v)));
+            return Collections.unmodifiableMap(map);
+        } else if (value instanceof List) {
+            final List<Object> list = new ArrayList<>(((List<?>) value).size());
+            ((List<?>) value).forEach(v -> list.add(freeze(v)));
+            return Collections.unmodifiableList(list);
+        } else if (value instanceof Set) {
+            final Set<Object> set = new LinkedHashSet<>();
+            ((Set<?>) value).forEach(v -> set.add(freeze(v)));
+            return Collections.unmodifiableSet(set);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.constructor.AbstractConstruct;
+import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+
+/**
+ * A SnakeYAML Constructor which also understands the {@code !include} tag: the value {@code !include common/types.yaml} is replaced by the content of that file, whose path is
+ * relative to that of the file containing the tag. The included files are loaded through a {@link FragmentCache}, so each is only parsed once.
+ * <p>
+ * As SnakeYAML Constructors aren't thread-safe, nor is this; and it must be told which file is being parsed, with {@link #setSource}, before each parse.
+ */
+final class IncludeConstructor extends Constructor {
+    static final Tag INCLUDE_TAG = new Tag("!include");
+
+    private LoadableEntities.LoadableEntity source;
+    private FragmentCache.Parser            fragmentParser;
+    private FragmentCache                   fragmentCache;
+
+    IncludeConstructor(final LoaderOptions loaderOptions) {
+        super(loaderOptions);
+        yamlConstructors.put(INCLUDE_TAG, new ConstructInclude());
+    }
+
+    /**
+     * @param source         the file about to be parsed, which includes are relative to
+     * @param fragmentCache  the cache of included fragments
+     * @param fragmentParser parses an included fragment, if it isn't already cached
+     */
+    void setSource(final LoadableEntities.LoadableEntity source, final FragmentCache fragmentCache, final FragmentCache.Parser fragmentParser) {
+        this.source = source;
+        this.fragmentCache = fragmentCache;
+        this.fragmentParser = fragmentParser;
+    }
+
+    private final class ConstructInclude extends AbstractConstruct {
+        @Override
+        public Object construct(final Node node) {
+            if (!(node instanceof ScalarNode)) {
+                throw new YAMLException("!include needs a path, at line " + (node.getStartMark().getLine() + 1) + " of " + describeSource());
+            }
+            if (source == null) {
+                throw new YAMLException("!include isn't supported here, at line " + (node.getStartMark().getLine() + 1));
+            }
+            final String path = ((ScalarNode) node).getValue();
+            try {
+                return fragmentCache.get(source.resolveRelative(path), fragmentParser);
+            } catch (final IOException | IllegalArgumentException e) {
+                throw new YAMLException("Cannot include '" + path + "' at line " + (node.getStartMark().getLine() + 1) + " of " + describeSource() + ": " + e.getMessage(), e);
+            }
+        }
+
+        private String describeSource() {
+            return source != null ? source.getFullPath().toString() : "unknown source";
+        }
+    }
+}
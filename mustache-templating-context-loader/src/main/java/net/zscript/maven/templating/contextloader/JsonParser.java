@@ -0,0 +1,328 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small, fast JSON parser, reading straight from a Reader through its own buffer, and producing the same object tree shapes as SnakeYAML does for the same JSON: insertion-ordered
+ * maps (with the last of any duplicate keys winning), ArrayLists, Strings, Booleans, nulls, and Integers, Longs or BigIntegers (whichever is the smallest to fit) for whole
+ * numbers. Other numbers are Doubles.
+ * <p>
+ * The parsing is strict RFC 8259, other than accepting a leading byte-order mark. An instance can be reused for any number of documents (keeping its buffers), but isn't
+ * thread-safe.
+ */
+final class JsonParser {
+    /** Guards against stack overflow from maliciously (or accidentally) deep documents. */
+    private static final int MAX_DEPTH = 1000;
+
+    private final char[]        buf = new char[8192];
+    private final StringBuilder sb  = new StringBuilder();
+
+    private Reader reader;
+    private int    pos;
+    private int    limit;
+    private int    line;
+    private int    lineStart;
+    private int    depth;
+
+    /**
+     * Parses a single JSON value, which must be the only thing (other than whitespace) in the content.
+     *
+     * @param reader the JSON content; not closed
+     * @return the parsed value
+     * @throws IOException if the content can't be read, or isn't valid JSON
+     */
+    Object parse(final Reader reader) throws IOException {
+        this.reader = reader;
+        pos = 0;
+        limit = 0;
+        line = 1;
+        lineStart = 0;
+        depth = 0;
+        try {
+            if (peek() == '\uFEFF') {
+                pos++;
+            }
+            final Object value = readValue();
+            if (skipWhitespace() != -1) {
+                throw error("Unexpected content after the end of the JSON value");
+            }
+            return value;
+        } finally {
+            this.reader = null;
+        }
+    }
+
+    private Object readValue() throws IOException {
+        final int c = skipWhitespace();
+        switch (c) {
+        case '{':
+            pos++;
+            return readObject();
+        case '[':
+            pos++;
+            return readArray();
+        case '"':
+            pos++;
+            return readString();
+        case 't':
+            expectWord("true");
+            return Boolean.TRUE;
+        case 'f':
+            expectWord("false");
+            return Boolean.FALSE;
+        case 'n':
+            expectWord("null");
+            return null;
+        case -1:
+            throw error("Unexpected end of JSON content");
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber();
+            }
+            throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() throws IOException {
+        enter();
+        final Map<String, Object> map = new LinkedHashMap<>();
+        if (skipWhitespace() == '}') {
+            pos++;
+            depth--;
+            return map;
+        }
+        while (true) {
+            if (skipWhitespace() != '"') {
+                throw error("Expected a string as an object key");
+            }
+            pos++;
+            final String key = readString();
+            if (skipWhitespace() != ':') {
+                throw error("Expected ':' after an object key");
+            }
+            pos++;
+            map.put(key, readValue());
+            final int c = skipWhitespace();
+            pos++;
+            if (c == '}') {
+                depth--;
+                return map;
+            } else if (c != ',') {
+                pos--;
+                throw error("Expected ',' or '}' in an object");
+            }
+        }
+    }
+
+    private List<Object> readArray() throws IOException {
+        enter();
+        final List<Object> list = new ArrayList<>();
+        if (skipWhitespace() == ']') {
+            pos++;
+            depth--;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            final int c = skipWhitespace();
+            pos++;
+            if (c == ']') {
+                depth--;
+                return list;
+            } else if (c != ',') {
+                pos--;
+                throw error("Expected ',' or ']' in an array");
+            }
+        }
+    }
+
+    private void enter() throws IOException {
+        if (++depth > MAX_DEPTH) {
+            throw error("JSON is nested more than " + MAX_DEPTH + " levels deep");
+        }
+    }
+
+    /**
+     * Reads a string's content, after its opening quote, copying unescaped runs straight from the buffer.
+     */
+    private String readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw error("Unterminated string");
+            }
+            final int start = pos;
+            while (pos < limit) {
+                final char c = buf[pos];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                pos++;
+            }
+            sb.append(buf, start, pos - start);
+            if (pos == limit) {
+                continue;
+            }
+            final char c = buf[pos++];
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                sb.append(readEscape());
+            } else {
+                pos--;
+                throw error("Unescaped control character in string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return (char) c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                final int digit = Character.digit(read(), 16);
+                if (digit == -1) {
+                    throw error("Invalid \\u escape");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char) value;
+        default:
+            throw error("Invalid escape character");
+        }
+    }
+
+    private Object readNumber() throws IOException {
+        sb.setLength(0);
+        boolean integral = true;
+        if (peek() == '-') {
+            sb.append((char) read());
+        }
+        if (peek() == '0') {
+            sb.append((char) read());
+        } else if (!appendDigits()) {
+            throw error("Expected a digit");
+        }
+        if (peek() == '.') {
+            integral = false;
+            sb.append((char) read());
+            if (!appendDigits()) {
+                throw error("Expected a digit after the decimal point");
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            integral = false;
+            sb.append((char) read());
+            if (peek() == '+' || peek() == '-') {
+                sb.append((char) read());
+            }
+            if (!appendDigits()) {
+                throw error("Expected a digit in the exponent");
+            }
+        }
+        final String number = sb.toString();
+        if (!integral) {
+            return Double.valueOf(number);
+        }
+        // Long has up to 19 digits, so anything shorter always fits
+        if (number.length() < 19) {
+            final long value = Long.parseLong(number);
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        }
+        final BigInteger value = new BigInteger(number);
+        return value.bitLength() < 64 ? (Object) value.longValue() : value;
+    }
+
+    private boolean appendDigits() throws IOException {
+        boolean any = false;
+        for (int c = peek(); c >= '0' && c <= '9'; c = peek()) {
+            sb.append((char) c);
+            pos++;
+            any = true;
+        }
+        return any;
+    }
+
+    private void expectWord(final String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (read() != word.charAt(i)) {
+                pos--;
+                throw error("Expected '" + word + "'");
+            }
+        }
+    }
+
+    /**
+     * @return the next non-whitespace character, without consuming it, or -1 at the end
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            final int c = peek();
+            if (c == '\n') {
+                line++;
+                lineStart = pos + 1;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int read() throws IOException {
+        final int c = peek();
+        if (c != -1) {
+            pos++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        // keep track of the column across refills
+        lineStart -= limit;
+        pos = 0;
+        limit = 0;
+        final int n = reader.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private IOException error(final String message) {
+        return new IOException(message + ", at line " + line + ", column " + (pos - lineStart + 1));
+    }
+}
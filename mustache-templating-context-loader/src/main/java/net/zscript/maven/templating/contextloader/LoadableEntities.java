@@ -5,16 +5,36 @@
  */
 package net.zscript.maven.templating.contextloader;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -25,10 +45,18 @@ import static java.util.stream.Collectors.toList;
  * templates. Strictly, a scope doesn't have to be loaded from anywhere - it's just a collection of Objects which are probably derived from the relative paths.
  */
 public class LoadableEntities {
-    private final URI          rootPath;
-    private final List<String> relativePaths;
-    private final String       fileTypeSuffix;
-    private final FileSystem   fileSystem;
+    /** Local files of at least this many bytes are memory-mapped by {@link LoadableEntity#readContent()}, rather than read into the heap. */
+    public static final int MAPPING_THRESHOLD = 1024 * 1024;
+
+    private final URI                rootPath;
+    private final Path               contentRoot;
+    private final List<String>       relativePaths;
+    private final String             fileTypeSuffix;
+    private final FileSystem         fileSystem;
+    private final boolean            parallel;
+    private final ParsedContextCache parsedContextCache;
+    private final TimingListener     timingListener;
+    private final FragmentCache      fragmentCache;
 
     /**
      * This method is called by the plugin to describe the files that have been requested for loading the scopes for templating.
@@ -39,30 +67,221 @@ public class LoadableEntities {
      * @param fileSystem     the local FileSystem type, usually from {@link FileSystems#getDefault()} (mostly facilitating multiplatform testing)
      */
     public LoadableEntities(URI rootPath, List<String> relativePaths, String fileTypeSuffix, FileSystem fileSystem) {
-        if (!rootPath.getPath().endsWith("/")) {
+        this(rootPath, null, relativePaths, fileTypeSuffix, fileSystem, false, null, TimingListener.NONE, null);
+    }
+
+    /**
+     * This constructor is called by the plugin to describe files in a directory on a FileSystem other than the plugin's - eg a directory within a zip or jar file, opened as a
+     * zip FileSystem. The files are read directly from that FileSystem, rather than through their URLs.
+     *
+     * @param contentRoot    the directory containing the files
+     * @param relativePaths  the paths to the files to be tried by the {@link TemplatingPluginContextLoader contextLoader}, relative to the contentRoot, with '/' separators
+     * @param fileTypeSuffix the requested output filename suffix, helpful for defining the output filenames
+     * @param fileSystem     the local FileSystem type, usually from {@link FileSystems#getDefault()}, which output filenames are created on (not the contentRoot's)
+     */
+    public LoadableEntities(Path contentRoot, List<String> relativePaths, String fileTypeSuffix, FileSystem fileSystem) {
+        this(directoryUri(contentRoot), contentRoot, relativePaths, fileTypeSuffix, fileSystem, false, null, TimingListener.NONE, null);
+    }
+
+    private static URI directoryUri(final Path directory) {
+        final URI uri = directory.toUri();
+        return uri.toString().endsWith("/") ? uri : URI.create(uri + "/");
+    }
+
+    private LoadableEntities(URI rootPath, Path contentRoot, List<String> relativePaths, String fileTypeSuffix, FileSystem fileSystem, boolean parallel,
+            ParsedContextCache parsedContextCache, TimingListener timingListener, FragmentCache fragmentCache) {
+        // archive URIs (eg "jar:file:/a.zip!/dir/") are opaque, so have no path as such
+        if (!(rootPath.isOpaque() ? rootPath.getSchemeSpecificPart() : rootPath.getPath()).endsWith("/")) {
             throw new IllegalArgumentException("Invalid directory URI - missing '/'? " + rootPath);
         }
         this.rootPath = rootPath;
+        this.contentRoot = contentRoot;
         this.relativePaths = relativePaths;
         this.fileTypeSuffix = fileTypeSuffix;
         this.fileSystem = fileSystem;
+        this.parallel = parallel;
+        this.parsedContextCache = parsedContextCache;
+        this.timingListener = timingListener;
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * @return the relative paths of the entities to be loaded, in the order they were supplied
+     */
+    public List<String> getRelativePaths() {
+        return Collections.unmodifiableList(relativePaths);
+    }
+
+    /**
+     * Creates a LoadableEntities with the same root, suffix and FileSystem as this one, but with a different set of relative paths - eg a subset of the paths, when the plugin
+     * knows that only some of them need to be loaded.
+     *
+     * @param relativePaths the paths to the files to be tried by the {@link TemplatingPluginContextLoader contextLoader}
+     * @return a new LoadableEntities
+     */
+    public LoadableEntities withRelativePaths(List<String> relativePaths) {
+        return new LoadableEntities(rootPath, contentRoot, relativePaths, fileTypeSuffix, fileSystem, parallel, parsedContextCache, timingListener, fragmentCache);
+    }
+
+    /**
+     * Creates a LoadableEntities like this one, but which applies the loader function in {@link #loadEntities(Function)} to many entities concurrently. The results are still
+     * returned in the order of the relative paths. The plugin only enables this for a {@link TemplatingPluginContextLoader} which declares itself
+     * {@link TemplatingPluginContextLoader#isThreadSafe() thread-safe}.
+     *
+     * @param parallel true to load entities concurrently, false to load them one at a time
+     * @return a new LoadableEntities
+     */
+    public LoadableEntities withParallelLoading(boolean parallel) {
+        return new LoadableEntities(rootPath, contentRoot, relativePaths, fileTypeSuffix, fileSystem, parallel, parsedContextCache, timingListener, fragmentCache);
+    }
+
+    /**
+     * @return true if {@link #loadEntities(Function)} applies the loader function to many entities concurrently
+     */
+    public boolean isParallelLoading() {
+        return parallel;
+    }
+
+    /**
+     * Creates a LoadableEntities like this one, but which offers the supplied cache of parsed context files to the context loader.
+     *
+     * @param parsedContextCache the cache, or null for none
+     * @return a new LoadableEntities
+     */
+    public LoadableEntities withParsedContextCache(ParsedContextCache parsedContextCache) {
+        return new LoadableEntities(rootPath, contentRoot, relativePaths, fileTypeSuffix, fileSystem, parallel, parsedContextCache, timingListener, fragmentCache);
+    }
+
+    /**
+     * A context loader which parses context files may use this cache to avoid re-parsing files which haven't changed since an earlier build. The plugin supplies one unless
+     * configured not to.
+     *
+     * @return the cache of parsed context files, or null if there isn't one
+     */
+    public ParsedContextCache getParsedContextCache() {
+        return parsedContextCache;
+    }
+
+    /**
+     * Creates a LoadableEntities like this one, but which offers the supplied timing listener to the context loader.
+     *
+     * @param timingListener the listener
+     * @return a new LoadableEntities
+     */
+    public LoadableEntities withTimingListener(TimingListener timingListener) {
+        return new LoadableEntities(rootPath, contentRoot, relativePaths, fileTypeSuffix, fileSystem, parallel, parsedContextCache, timingListener, fragmentCache);
+    }
+
+    /**
+     * A context loader may report timings of its own work to this listener, which are then included in the plugin's timing summary and build report.
+     *
+     * @return the timing listener, never null
+     */
+    public TimingListener getTimingListener() {
+        return timingListener;
+    }
+
+    /**
+     * Creates a LoadableEntities like this one, but which offers the supplied cache of included fragments to the context loader.
+     *
+     * @param fragmentCache the cache, or null for none
+     * @return a new LoadableEntities
+     */
+    public LoadableEntities withFragmentCache(FragmentCache fragmentCache) {
+        return new LoadableEntities(rootPath, contentRoot, relativePaths, fileTypeSuffix, fileSystem, parallel, parsedContextCache, timingListener, fragmentCache);
+    }
+
+    /**
+     * A context loader which lets context files include other files (fragments) should load them through this cache, so that each is only parsed once however many contexts
+     * include it. The plugin supplies a new one to each execution, and records which fragments were used, so that later incremental builds regenerate everything if they change.
+     *
+     * @return the cache of included fragments, or null if there isn't one
+     */
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
     }
 
     /**
      * This method wraps the relative paths as LoadableEntity objects (before loading) and performs the 'loader' function upon them, to produce (zero or more) LoadedEntityScopes -
      * the output of the Entity loading/transforming operation. Supplying this loader function is the core of writing a ContextLoader.
+     * <p>
+     * If {@link #isParallelLoading() parallel loading} is enabled, then the loader function is called concurrently from several threads, so it must be thread-safe.
      *
      * @param loader a function for loading entities and supplying them (and their proposed output paths) in the form that Mustache can consume
-     * @return the loaded entities, ready for Mustache
+     * @return the loaded entities, ready for Mustache, in the order of the relative paths
      */
     public List<LoadedEntityScopes> loadEntities(Function<LoadableEntity, List<LoadedEntityScopes>> loader) {
-        return relativePaths.stream()
+        final Stream<String> paths = parallel ? relativePaths.parallelStream() : relativePaths.stream();
+        return paths
                 .map(LoadableEntity::new)
                 .map(loader)
                 .flatMap(Collection::stream)
                 .collect(toList());
     }
 
+    /**
+     * Like {@link #loadEntities}, but lazily: the loader function is only applied to each entity when the returned stream reaches it, and the stream it returns is consumed one
+     * element at a time, so a loader producing a great many contexts from one entity needn't hold them all in memory. This is the basis of a streaming
+     * {@link TemplatingPluginContextLoader#loadAndStream}.
+     * <p>
+     * The returned stream is sequential, whatever the {@link #isParallelLoading() parallel loading} setting. Closing it closes the stream of the entity currently being loaded.
+     *
+     * @param loader a function for loading an entity and supplying its contexts (and their proposed output paths) as a stream
+     * @return the loaded entities, ready for Mustache, in the order of the relative paths
+     */
+    public Stream<LoadedEntityScopes> streamEntities(Function<LoadableEntity, Stream<LoadedEntityScopes>> loader) {
+        // not flatMap, which (before Java 10) buffers the whole of each entity's stream when the result is iterated
+        final EntityStreamIterator iterator = new EntityStreamIterator(loader);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Iterates over the contexts of each entity in turn, only loading an entity once the previous one's contexts have all been consumed.
+     */
+    private final class EntityStreamIterator implements Iterator<LoadedEntityScopes> {
+        private final Function<LoadableEntity, Stream<LoadedEntityScopes>> loader;
+        private final Iterator<String>                                     paths           = relativePaths.iterator();
+        private       Stream<LoadedEntityScopes>                           current;
+        private       Iterator<LoadedEntityScopes>                         currentContexts = Collections.emptyIterator();
+
+        EntityStreamIterator(final Function<LoadableEntity, Stream<LoadedEntityScopes>> loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentContexts.hasNext()) {
+                close();
+                if (!paths.hasNext()) {
+                    return false;
+                }
+                current = loader.apply(new LoadableEntity(paths.next()));
+                if (current != null) {
+                    currentContexts = current.iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public LoadedEntityScopes next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentContexts.next();
+        }
+
+        void close() {
+            final Stream<LoadedEntityScopes> finished = current;
+            current = null;
+            currentContexts = Collections.emptyIterator();
+            if (finished != null) {
+                finished.close();
+            }
+        }
+    }
+
     /**
      * A single loadable entity, representing one of the relative paths in the {@link LoadableEntities}.
      */
@@ -98,8 +317,32 @@ public class LoadableEntities {
             return fileSystem;
         }
 
+        /**
+         * Resolves a path relative to this entity's directory, as for a file which this one refers to (eg includes). The result has the same root, but needn't be one of the
+         * {@link #getRelativePaths() relative paths} being loaded, nor even within the root directory.
+         *
+         * @param path a relative path, with '/' separators
+         * @return the entity for the resolved path
+         * @throws IllegalArgumentException if the path is absolute
+         */
+        public LoadableEntity resolveRelative(String path) {
+            if (path.startsWith("/") || fileSystem.getPath(path).isAbsolute()) {
+                throw new IllegalArgumentException("Path must be relative: " + path);
+            }
+            final Deque<String> segments = new ArrayDeque<>();
+            final int           slash    = relativePath.lastIndexOf('/');
+            for (String segment : ((slash == -1 ? "" : relativePath.substring(0, slash + 1)) + path).split("/")) {
+                if (segment.equals("..") && !segments.isEmpty() && !segments.peekLast().equals("..")) {
+                    segments.removeLast();
+                } else if (!segment.isEmpty() && !segment.equals(".")) {
+                    segments.addLast(segment);
+                }
+            }
+            return new LoadableEntity(String.join("/", segments));
+        }
+
         public URI getFullPath() {
-            return rootPath.resolve(relativePath);
+            return contentRoot != null ? contentRoot.resolve(relativePath).toUri() : rootPath.resolve(relativePath);
         }
 
         /**
@@ -113,6 +356,70 @@ public class LoadableEntities {
             return ("classpath".equals(fullPath.getScheme())) ? getClass().getResource(fullPath.getPath()) : fullPath.toURL();
         }
 
+        /**
+         * Determines the path of this entity's file, if it's on the plugin's {@link #getFileSystem() FileSystem} (eg a 'file:' URI, when using the default FileSystem), or in
+         * an archive which the plugin has opened as a FileSystem. Loaders can use it to read the file directly, which is faster than going through
+         * {@link #getFullPathAsUrl() the URL}. Note that a path in an archive can't be converted to a {@link java.io.File}.
+         *
+         * @return the path to the file, or null if the entity isn't a local file (eg it's on the classpath, or remote)
+         */
+        public Path getLocalPath() {
+            if (contentRoot != null) {
+                return contentRoot.resolve(relativePath);
+            }
+            final URI fullPath = getFullPath();
+            if (fullPath.getScheme() == null || !fullPath.getScheme().equalsIgnoreCase(fileSystem.provider().getScheme())) {
+                return null;
+            }
+            try {
+                return Paths.get(fullPath);
+            } catch (final IllegalArgumentException | FileSystemNotFoundException | SecurityException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Reads this entity's entire content. A {@link #getLocalPath() local file} is read directly through a {@link FileChannel}, and is memory-mapped if it's at least
+         * {@link #MAPPING_THRESHOLD} bytes (and the FileSystem supports it); anything else is read through {@link #getFullPathAsUrl() its URL}.
+         * <p>
+         * A mapped buffer remains valid after the file is changed or deleted, but its content is then undefined; and on some platforms, the file can't be deleted while it's
+         * mapped. So a loader shouldn't keep a buffer beyond parsing it.
+         *
+         * @return a read-only buffer, positioned at the start of the content
+         * @throws IOException if the content can't be read
+         */
+        public ByteBuffer readContent() throws IOException {
+            final Path localPath = getLocalPath();
+            if (localPath == null) {
+                final URL url = getFullPathAsUrl();
+                if (url == null) {
+                    throw new FileNotFoundException("Failed to read from: " + getFullPath());
+                }
+                try (InputStream in = url.openStream()) {
+                    return ByteBuffer.wrap(readFully(in)).asReadOnlyBuffer();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(localPath, READ)) {
+                final long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("File too large to load (" + size + " bytes): " + localPath);
+                }
+                if (size >= MAPPING_THRESHOLD) {
+                    try {
+                        return channel.map(READ_ONLY, 0, size);
+                    } catch (final UnsupportedOperationException e) {
+                        // not all FileSystems support mapping, so just read it
+                    }
+                }
+                final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // keep reading
+                }
+                ((Buffer) buffer).flip();
+                return buffer.asReadOnlyBuffer();
+            }
+        }
+
         /**
          * Takes a (list of) scope objects associated with this entity. In simple cases, a scope may just be the singular (parsed) file content, but it could also have other
          * objects to provide additional scopes to the templating.
@@ -126,6 +433,15 @@ public class LoadableEntities {
         }
     }
 
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[]                buf = new byte[8192];
+        for (int n; (n = in.read(buf)) != -1; ) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * A LoadableEntity that is augmented with post-load content(s) (to be used as templating scopes) and an output filename. It is created from a LoadableEntity by a loader
      * calling {@link LoadableEntity#withScopes(List, Path)}, to supply the extra information.
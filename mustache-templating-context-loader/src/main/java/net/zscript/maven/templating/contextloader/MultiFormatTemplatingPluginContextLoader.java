@@ -0,0 +1,161 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+
+/**
+ * A ContextLoader which chooses how to parse each context file by its suffix:
+ * <ul>
+ *     <li>'.json' files are read by a fast, purpose-built JSON parser, rather than the much more general (and slower) YAML one;</li>
+ *     <li>'.properties' files are read as {@link Properties} (in UTF-8), giving a map of their keys (sorted) to String values;</li>
+ *     <li>anything else, including '.yaml' and '.yml' files, is read just as by {@link YamlTemplatingPluginContextLoader}, which is configured by the same properties, and
+ *     can {@code !include} YAML (or JSON) fragments.</li>
+ * </ul>
+ * Whatever the format, the contexts have the same shape as the YAML loader produces: insertion-ordered maps, lists, and simple values, so a template can be used with any of them.
+ * Each output file is named after its context file, with the configured suffix. It is thread-safe (each thread has its own parsers, used for all its files), and reusable.
+ */
+public class MultiFormatTemplatingPluginContextLoader implements TemplatingPluginContextLoader {
+    private static final String JSON_CACHE_SETTINGS_KEY       = MultiFormatTemplatingPluginContextLoader.class.getName() + ";format=json";
+    private static final String PROPERTIES_CACHE_SETTINGS_KEY = MultiFormatTemplatingPluginContextLoader.class.getName() + ";format=properties";
+
+    /** The name of the phase reported to the {@link TimingListener} for parsing JSON (and reading it too, if not cached). */
+    static final String JSON_PARSE_PHASE = "json-parse";
+
+    /** The name of the phase reported to the {@link TimingListener} for parsing properties (and reading them too, if not cached). */
+    static final String PROPERTIES_PARSE_PHASE = "properties-parse";
+
+    private final YamlTemplatingPluginContextLoader yamlLoader = new YamlTemplatingPluginContextLoader();
+    private final ThreadLocal<JsonParser>           jsonParser = ThreadLocal.withInitial(JsonParser::new);
+
+    /**
+     * Reads a file's content, in whichever format.
+     */
+    @FunctionalInterface
+    private interface FormatParser {
+        Object parse(Reader reader) throws IOException;
+    }
+
+    @Override
+    public void init(Map<String, String> properties) {
+        yamlLoader.init(properties);
+    }
+
+    @Override
+    public List<LoadableEntities.LoadedEntityScopes> loadAndMap(LoadableEntities entities) {
+        final ParsedContextCache cache     = entities.getParsedContextCache();
+        final FragmentCache      fragments = YamlTemplatingPluginContextLoader.fragmentCache(entities);
+        final TimingListener     listener  = entities.getTimingListener();
+        return entities.loadEntities(entity -> load(entity, cache, fragments, listener));
+    }
+
+    /**
+     * If YAML files may hold multiple documents, they're streamed lazily, as by {@link YamlTemplatingPluginContextLoader#loadAndStream}. Otherwise, this just streams the
+     * result of {@link #loadAndMap}.
+     */
+    @Override
+    public Stream<LoadableEntities.LoadedEntityScopes> loadAndStream(LoadableEntities entities) {
+        if (!yamlLoader.isMultiDocument()) {
+            return loadAndMap(entities).stream();
+        }
+        final ParsedContextCache cache     = entities.getParsedContextCache();
+        final FragmentCache      fragments = YamlTemplatingPluginContextLoader.fragmentCache(entities);
+        final TimingListener     listener  = entities.getTimingListener();
+        return entities.streamEntities(entity -> isYaml(entity)
+                ? yamlLoader.streamEntity(entity, cache, fragments, listener)
+                : load(entity, cache, fragments, listener).stream());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    private List<LoadableEntities.LoadedEntityScopes> load(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, FragmentCache fragments, TimingListener listener) {
+        switch (suffix(entity)) {
+        case "json":
+            return load(entity, cache, listener, JSON_CACHE_SETTINGS_KEY, JSON_PARSE_PHASE, r -> jsonParser.get().parse(r));
+        case "properties":
+            return load(entity, cache, listener, PROPERTIES_CACHE_SETTINGS_KEY, PROPERTIES_PARSE_PHASE, MultiFormatTemplatingPluginContextLoader::parseProperties);
+        default:
+            return yamlLoader.loadEntity(entity, cache, fragments, listener);
+        }
+    }
+
+    private List<LoadableEntities.LoadedEntityScopes> load(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, TimingListener listener, String cacheSettingsKey,
+            String phase, FormatParser parser) {
+        final Path relativePathToOutput = createDefaultOutputPath(entity.getRelativePath(), entity.getFileTypeSuffix(), entity.getFileSystem());
+        try {
+            final Object value;
+            if (cache != null) {
+                value = cache.load(entity, cacheSettingsKey, content -> parse(content, listener, phase, parser));
+            } else if (entity.getLocalPath() != null) {
+                value = parse(entity.readContent(), listener, phase, parser);
+            } else {
+                final long start = System.nanoTime();
+                try (Reader r = new BufferedReader(new InputStreamReader(entity.getFullPathAsUrl().openStream(), UTF_8))) {
+                    value = parser.parse(r);
+                }
+                listener.record(phase, System.nanoTime() - start, 1);
+            }
+            return singletonList(entity.withScopes(singletonList(value), relativePathToOutput));
+        } catch (NullPointerException ex) {
+            throw new UncheckedIOException(new IOException("Failed to read from: " + entity.getFullPath(), ex));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(new IOException("Failed to parse " + entity.getFullPath() + ": " + ex.getMessage(), ex));
+        }
+    }
+
+    private static Object parse(ByteBuffer content, TimingListener listener, String phase, FormatParser parser) throws IOException {
+        final long   start = System.nanoTime();
+        final Object value = parser.parse(new InputStreamReader(new ByteBufferInputStream(content), UTF_8));
+        listener.record(phase, System.nanoTime() - start, 1);
+        return value;
+    }
+
+    private static Object parseProperties(Reader reader) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(reader);
+        // Properties doesn't keep the file's order, so sort them, for a repeatable result
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    }
+
+    private static boolean isYaml(LoadableEntities.LoadableEntity entity) {
+        final String suffix = suffix(entity);
+        return !suffix.equals("json") && !suffix.equals("properties");
+    }
+
+    private static String suffix(LoadableEntities.LoadableEntity entity) {
+        final String relativePath = entity.getRelativePath();
+        final int    dotIndex     = relativePath.lastIndexOf('.');
+        return dotIndex != -1 ? relativePath.substring(dotIndex + 1).toLowerCase(Locale.ROOT) : "";
+    }
+}
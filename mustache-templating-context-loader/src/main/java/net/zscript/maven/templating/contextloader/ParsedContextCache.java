@@ -0,0 +1,348 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An on-disk cache of parsed context files, so that a context loader doesn't have to re-parse files which haven't changed since an earlier build. It is created by the plugin,
+ * and made available to context loaders by {@link LoadableEntities#getParsedContextCache()}; using it is optional.
+ * <p>
+ * Each entry holds a parsed object tree (see {@link ContextCodec} for the supported types) in a compact binary form. Entries are keyed by a digest of the source file's content
+ * and of the parser's settings, so a cached tree is only ever used for exactly the content and settings which produced it. Each entry also records the URI of the source it was
+ * loaded from, so that {@link #prune()} can evict entries whose source has been deleted or changed, before trimming the cache to its size limit (least recently used first).
+ * <p>
+ * Optionally, recently used entries are also kept in memory (still in their binary form, so each load gets its own copy of the tree), which saves re-reading them when the same
+ * instance loads the same content repeatedly - eg while watching for changes.
+ * <p>
+ * This class is thread-safe, and as entries are written atomically, a cache directory may be shared by several executions.
+ */
+public final class ParsedContextCache {
+    private static final String ENTRY_SUFFIX   = ".ctx";
+    private static final int    MAGIC          = 0x4d54_4358;
+    private static final int    FORMAT_VERSION = 1;
+    private static final Object NOT_CACHED     = new Object();
+
+    private final Path                       directory;
+    private final long                       maxSizeBytes;
+    private final long                       memoryMaxSizeBytes;
+    private final ConcurrentMap<URI, String> entriesUsed = new ConcurrentHashMap<>();
+    private final AtomicInteger              hits        = new AtomicInteger();
+    private final AtomicInteger              misses      = new AtomicInteger();
+
+    // guarded by 'memory'; access-ordered, so the least recently used entries are evicted first
+    private final Map<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private       long                memorySizeBytes;
+
+    /**
+     * @param directory    the directory to keep the cache in; it's created when first needed
+     * @param maxSizeBytes the total size of the cache entries which {@link #prune()} trims the cache to
+     */
+    public ParsedContextCache(final Path directory, final long maxSizeBytes) {
+        this(directory, maxSizeBytes, 0);
+    }
+
+    /**
+     * @param directory          the directory to keep the cache in; it's created when first needed
+     * @param maxSizeBytes       the total size of the cache entries which {@link #prune()} trims the cache to
+     * @param memoryMaxSizeBytes the total size of the entries to also keep in memory, or zero to keep none
+     */
+    public ParsedContextCache(final Path directory, final long maxSizeBytes, final long memoryMaxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.memoryMaxSizeBytes = memoryMaxSizeBytes;
+    }
+
+    /**
+     * A parser which converts a file's raw content into an object tree. The content buffer may be memory-mapped (see {@link LoadableEntities.LoadableEntity#readContent()}), so
+     * shouldn't be kept.
+     */
+    @FunctionalInterface
+    public interface Parser {
+        Object parse(ByteBuffer content) throws IOException;
+    }
+
+    /**
+     * Reads the entity's source file (using {@link LoadableEntities.LoadableEntity#readContent()}), and returns the parsed content from the cache if present, or otherwise parses it and caches the result. If the result can't be cached (eg it
+     * contains unsupported types, or the cache directory isn't writable) then it's simply returned uncached: the cache is only an optimisation.
+     *
+     * @param entity      the entity to load
+     * @param settingsKey describes the parser and any settings which affect its result, eg its version and options
+     * @param parser      parses the source content if there's no cached entry
+     * @return the parsed content: either that returned by the parser, or an equivalent tree decoded from the cache
+     * @throws IOException if the source can't be read, or the parser fails
+     */
+    public Object load(final LoadableEntities.LoadableEntity entity, final String settingsKey, final Parser parser) throws IOException {
+        return load(entity, entity.readContent(), settingsKey, parser);
+    }
+
+    /**
+     * As {@link #load(LoadableEntities.LoadableEntity, String, Parser)}, but with the entity's content already read, eg because the loader has examined it first.
+     *
+     * @param entity      the entity to load
+     * @param content     the entity's content, as returned by {@link LoadableEntities.LoadableEntity#readContent()}
+     * @param settingsKey describes the parser and any settings which affect its result, eg its version and options
+     * @param parser      parses the source content if there's no cached entry
+     * @return the parsed content: either that returned by the parser, or an equivalent tree decoded from the cache
+     * @throws IOException if the parser fails
+     */
+    public Object load(final LoadableEntities.LoadableEntity entity, final ByteBuffer content, final String settingsKey, final Parser parser) throws IOException {
+        final String entryName = digest(settingsKey, content) + ENTRY_SUFFIX;
+        final Path   entryFile = directory.resolve(entryName);
+        entriesUsed.put(entity.getFullPath(), entryName);
+
+        final Object cached = readEntry(entryName, entryFile);
+        if (cached != NOT_CACHED) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        final Object value = parser.parse(content);
+        writeEntry(entryName, entryFile, entity.getFullPath(), value);
+        return value;
+    }
+
+    /**
+     * @return the number of loads satisfied from the cache so far
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of loads which had to be parsed so far
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Evicts entries which are no longer useful: those whose source file no longer exists, and those for sources which were loaded by this instance with different content. Then,
+     * if the remaining entries exceed the size limit, the least recently used are evicted until they don't. Sources which aren't files (eg classpath or http URLs) can't be checked
+     * for existence, so their entries are only removed by the size limit.
+     *
+     * @return the number of entries evicted
+     * @throws IOException if the cache directory can't be read
+     */
+    public int prune() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            dir.forEach(entries::add);
+        }
+
+        final Set<String> inUse    = new HashSet<>(entriesUsed.values());
+        final List<Path>  retained = new ArrayList<>();
+        int               evicted  = 0;
+        for (Path entry : entries) {
+            if (!inUse.contains(entry.getFileName().toString()) && isObsolete(entry)) {
+                evicted += delete(entry);
+            } else {
+                retained.add(entry);
+            }
+        }
+
+        retained.sort(Comparator.comparing(ParsedContextCache::lastModified).reversed());
+        long totalSize = 0;
+        for (Path entry : retained) {
+            totalSize += size(entry);
+            if (totalSize > maxSizeBytes) {
+                evicted += delete(entry);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * An entry which wasn't used by this instance is obsolete if its source was loaded with different content, or no longer exists, or if it's unreadable.
+     */
+    private boolean isObsolete(final Path entry) {
+        final URI source;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return true;
+            }
+            source = URI.create(in.readUTF());
+        } catch (final IOException | IllegalArgumentException e) {
+            return true;
+        }
+        return entriesUsed.containsKey(source) || !sourceExists(source);
+    }
+
+    private static boolean sourceExists(final URI source) {
+        try {
+            return Files.exists(Paths.get(source));
+        } catch (final IllegalArgumentException | FileSystemNotFoundException | SecurityException e) {
+            // not a file we can check, so assume it still exists
+            return true;
+        }
+    }
+
+    private Object readEntry(final String entryName, final Path entryFile) {
+        final byte[] remembered = recall(entryName);
+        if (remembered != null) {
+            return decode(remembered);
+        }
+        try {
+            final byte[] bytes = Files.readAllBytes(entryFile);
+            final Object value = decode(bytes);
+            if (value != NOT_CACHED) {
+                remember(entryName, bytes);
+                // refresh the timestamp, as the size limit evicts the least recently used entries
+                Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            return value;
+        } catch (final IOException e) {
+            // no entry
+            return NOT_CACHED;
+        }
+    }
+
+    private static Object decode(final byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return NOT_CACHED;
+            }
+            in.readUTF();
+            return ContextCodec.read(in);
+        } catch (final IOException | RuntimeException e) {
+            // a corrupt or truncated entry - which is rewritten by the subsequent parse
+            return NOT_CACHED;
+        }
+    }
+
+    private byte[] recall(final String entryName) {
+        if (memoryMaxSizeBytes <= 0) {
+            return null;
+        }
+        synchronized (memory) {
+            return memory.get(entryName);
+        }
+    }
+
+    private void remember(final String entryName, final byte[] bytes) {
+        if (memoryMaxSizeBytes <= 0 || bytes.length > memoryMaxSizeBytes) {
+            return;
+        }
+        synchronized (memory) {
+            final byte[] previous = memory.put(entryName, bytes);
+            memorySizeBytes += bytes.length - (previous != null ? previous.length : 0);
+            for (Iterator<byte[]> it = memory.values().iterator(); memorySizeBytes > memoryMaxSizeBytes && it.hasNext(); ) {
+                memorySizeBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    private void writeEntry(final String entryName, final Path entryFile, final URI source, final Object value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(source.toString());
+            ContextCodec.write(out, value);
+        } catch (final IOException | ContextCodec.NotEncodableException e) {
+            return;
+        }
+        remember(entryName, bytes.toByteArray());
+
+        final Path tempFile = entryFile.resolveSibling("." + entryFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            Files.write(tempFile, bytes.toByteArray(), CREATE_NEW, WRITE);
+            try {
+                Files.move(tempFile, entryFile, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entryFile, REPLACE_EXISTING);
+            }
+        } catch (final IOException e) {
+            // the cache is only an optimisation, so failing to write an entry isn't an error
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (final IOException e) {
+                // as above
+            }
+        }
+    }
+
+    private static int delete(final Path entry) {
+        try {
+            return Files.deleteIfExists(entry) ? 1 : 0;
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(final Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (final IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long size(final Path entry) {
+        try {
+            return Files.size(entry);
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    private static String digest(final String settingsKey, final ByteBuffer content) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(settingsKey.getBytes(UTF_8));
+            md.update((byte) 0);
+            md.update(content.duplicate());
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -8,14 +8,30 @@ package net.zscript.maven.templating.contextloader;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import net.zscript.maven.templating.contextloader.LoadableEntities.LoadedEntityScopes;
 
 /**
  * This specifies a user-defined mapper that takes requested file/URI paths, and loads (or otherwise produces) a set of context objects to be given to the templating transform
  * process to populate the references in the template.
+ * <p>
+ * Lifecycle: the plugin creates each instance with the public no-args constructor, then calls {@link #init(Map)} once with the execution's 'contextLoaderProperties', before
+ * any call to {@link #loadAndStream}. When the plugin no longer needs an instance, it calls {@link #close()}. By default that happens at the end of each execution; a loader which
+ * declares itself {@link #isReusable() reusable} is instead kept for the rest of the build session, serving every execution (in any module) which uses the same class and
+ * properties, and is closed when the session ends.
  */
-public interface TemplatingPluginContextLoader {
+public interface TemplatingPluginContextLoader extends AutoCloseable {
+
+    /**
+     * Initialises this loader, before it's used. Override this to do any expensive set-up (eg building an index of schemas) which a {@link #isReusable() reusable} loader can
+     * then keep for the whole build. Failures should be reported by throwing an unchecked exception, which fails the execution.
+     *
+     * @param properties the 'contextLoaderProperties' configured for the execution, never null, and unmodifiable
+     */
+    default void init(Map<String, String> properties) {
+    }
 
     /**
      * Performs the required loading and mapping of requested file paths into actual context that can given to the Mustache template system. This method is responsible for the
@@ -35,6 +51,54 @@ public interface TemplatingPluginContextLoader {
      */
     List<LoadedEntityScopes> loadAndMap(LoadableEntities entities);
 
+    /**
+     * Like {@link #loadAndMap}, but supplies the contexts as a stream, which the plugin consumes lazily: each context is rendered and written (and can then be garbage-collected)
+     * while later ones are still being produced. Override this if a single call can produce a great many contexts - eg fanning a master file out into thousands of sub-contexts -
+     * so that they needn't all be held in memory at once. {@link LoadableEntities#streamEntities} helps with this, and {@link #loadAndMap} can then simply collect this method's
+     * stream.
+     * <p>
+     * The plugin calls this method rather than {@link #loadAndMap}, and closes the stream once it has finished with it, which may be before its end if generation fails. The
+     * default simply streams the result of {@link #loadAndMap}.
+     *
+     * @param entities the entities to map
+     * @return a stream of contexts ready for templating
+     */
+    default Stream<LoadedEntityScopes> loadAndStream(LoadableEntities entities) {
+        return loadAndMap(entities).stream();
+    }
+
+    /**
+     * Declares whether this loader may safely be called concurrently from multiple threads. If so, the plugin shares a single instance between all its load threads, and may
+     * enable {@link LoadableEntities#withParallelLoading(boolean) parallel loading}, so that the function passed to {@link LoadableEntities#loadEntities} is called concurrently.
+     * Otherwise (the default), each load thread gets its own instance, and calls are never concurrent.
+     *
+     * @return true if this loader is thread-safe
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Declares whether this loader may be reused by later executions, once an execution has finished with it. This requires that {@link #loadAndMap} leaves no state behind
+     * which could affect a subsequent call, other than caches which remain valid (eg of files which can't change during the build). If so, the plugin keeps idle instances for
+     * the rest of the build session, keyed by class and 'contextLoaderProperties', so that their initialisation (and anything they cache) is shared. Otherwise (the default),
+     * each execution initialises fresh instances, and closes them once it has finished.
+     *
+     * @return true if this loader may be reused by later executions
+     */
+    default boolean isReusable() {
+        return false;
+    }
+
+    /**
+     * Releases any resources held by this loader. Called once, after the plugin's last use of the instance. The default does nothing.
+     *
+     * @throws Exception if the resources can't be released; this is reported as a warning, and doesn't fail the build
+     */
+    @Override
+    default void close() throws Exception {
+    }
+
     /**
      * Handy utility method that removes an existing '.'-suffix, puts the new suffix on, and produces a Path to the result. It's probably what's needed for creating output file
      * paths.
@@ -0,0 +1,28 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+/**
+ * Receives timings of work done by a context loader, so that they appear alongside the plugin's own phase timings in its summary and build report. A context loader obtains the
+ * plugin's listener from {@link LoadableEntities#getTimingListener()}, and may report any named phases it likes; timings reported under the same name are added together.
+ * <p>
+ * Implementations must be thread-safe, as loading may happen on several threads.
+ */
+@FunctionalInterface
+public interface TimingListener {
+    /** A listener which ignores all timings. */
+    TimingListener NONE = (phase, elapsedNanos, itemCount) -> {
+    };
+
+    /**
+     * Records some work done by the context loader.
+     *
+     * @param phase        a short name for the kind of work, eg "parse"
+     * @param elapsedNanos the time it took, in nanoseconds (eg measured using {@link System#nanoTime()})
+     * @param itemCount    the number of items processed, eg files parsed
+     */
+    void record(String phase, long elapsedNanos, long itemCount);
+}
@@ -10,37 +10,191 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
 
+import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
 
 /**
- * This is the default ContextLoader implementation, which loads context content from some specified Json/YAML files, and presents their content for templating.
+ * This is the default ContextLoader implementation, which loads context content from some specified Json/YAML files, and presents their content for templating. It is
+ * thread-safe: a {@link Yaml} instance isn't, so each thread gets its own.
+ * <p>
+ * Local files are read directly (see {@link LoadableEntities.LoadableEntity#readContent()}), and others (eg on the classpath, or remote) through their URL.
+ * <p>
+ * It's configured by these (optional) 'contextLoaderProperties':
+ * <ul>
+ *     <li>{@code multiDocument}: if "true", each file is read as a stream of '---'-separated YAML documents, each of which becomes its own context. The documents are parsed
+ *     one at a time as they're rendered, so a file can hold thousands of them without them all being in memory at once. A context's output file is in a directory named after
+ *     its source file (without extension), eg 'defs/a.yaml' produces 'defs/a/0.java', 'defs/a/1.java' etc. Empty documents are skipped.</li>
+ *     <li>{@code documentNameKey}: with multiDocument, names each document's output file after the value of this key in the document, rather than its index in the file. Every
+ *     document must have the key, with a different value, which can't contain '/', '\' or '..'.</li>
+ *     <li>{@code codePointLimit}, {@code maxAliasesForCollections}, {@code nestingDepthLimit}: override SnakeYAML's corresponding {@link LoaderOptions} limits, eg to allow
+ *     documents larger than its default 3MB.</li>
+ * </ul>
+ * <p>
+ * A value can be taken from another file with the {@code !include} tag, eg {@code types: !include common/types.yaml}, whose path is relative to the including file (and may
+ * use '..'). Fragments may include others, but not themselves. Each fragment is parsed just once per execution, through the {@link FragmentCache}, and the same immutable copy
+ * is shared by every context which includes it - so templates mustn't expect to modify it. A file which uses {@code !include} isn't stored in the {@link ParsedContextCache},
+ * as its parsed content depends on more than its own. Note that an include can only supply a whole value: YAML merge keys ({@code <<: !include ...}) aren't supported.
  */
 public class YamlTemplatingPluginContextLoader implements TemplatingPluginContextLoader {
-    private final Yaml yamlMapper = new Yaml();
+    private static final String MULTI_DOCUMENT_PROPERTY      = "multiDocument";
+    private static final String DOCUMENT_NAME_KEY_PROPERTY   = "documentNameKey";
+    private static final String CODE_POINT_LIMIT_PROPERTY    = "codePointLimit";
+    private static final String MAX_ALIASES_PROPERTY         = "maxAliasesForCollections";
+    private static final String NESTING_DEPTH_LIMIT_PROPERTY = "nestingDepthLimit";
+
+    /** The name of the phase reported to the {@link TimingListener} for parsing YAML (and reading it too, if not cached). */
+    static final String PARSE_PHASE = "yaml-parse";
+
+    private static final byte[] INCLUDE_TAG_BYTES = IncludeConstructor.INCLUDE_TAG.getValue().getBytes(UTF_8);
+
+    private final ThreadLocal<YamlInstance> yamlMapper = ThreadLocal.withInitial(() -> new YamlInstance(this.loaderOptions));
+
+    // set by init(), before any loading
+    private boolean       multiDocument;
+    private String        documentNameKey;
+    private LoaderOptions loaderOptions    = new LoaderOptions();
+    private String        cacheSettingsKey = cacheSettingsKey("default");
+
+    @Override
+    public void init(Map<String, String> properties) {
+        multiDocument = Boolean.parseBoolean(properties.get(MULTI_DOCUMENT_PROPERTY));
+        documentNameKey = properties.get(DOCUMENT_NAME_KEY_PROPERTY);
+
+        final LoaderOptions options = new LoaderOptions();
+        options.setCodePointLimit(intProperty(properties, CODE_POINT_LIMIT_PROPERTY, options.getCodePointLimit()));
+        options.setMaxAliasesForCollections(intProperty(properties, MAX_ALIASES_PROPERTY, options.getMaxAliasesForCollections()));
+        options.setNestingDepthLimit(intProperty(properties, NESTING_DEPTH_LIMIT_PROPERTY, options.getNestingDepthLimit()));
+        loaderOptions = options;
+
+        cacheSettingsKey = cacheSettingsKey(MULTI_DOCUMENT_PROPERTY + "=" + multiDocument
+                + "," + CODE_POINT_LIMIT_PROPERTY + "=" + options.getCodePointLimit()
+                + "," + MAX_ALIASES_PROPERTY + "=" + options.getMaxAliasesForCollections()
+                + "," + NESTING_DEPTH_LIMIT_PROPERTY + "=" + options.getNestingDepthLimit());
+    }
+
+    /**
+     * Identifies everything which affects the parsed result, for the {@link ParsedContextCache}: the loader, the SnakeYAML jar and the settings.
+     */
+    private static String cacheSettingsKey(String settings) {
+        return YamlTemplatingPluginContextLoader.class.getName()
+                + ";snakeyaml=" + Yaml.class.getProtectionDomain().getCodeSource().getLocation()
+                + ";settings=" + settings;
+    }
+
+    private static int intProperty(Map<String, String> properties, String name, int defaultValue) {
+        final String value = properties.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Context loader property '" + name + "' must be an integer: " + value, ex);
+        }
+    }
 
     @Override
     public List<LoadableEntities.LoadedEntityScopes> loadAndMap(LoadableEntities entities) {
-        return entities.loadEntities(this::load);
+        final ParsedContextCache cache     = entities.getParsedContextCache();
+        final FragmentCache      fragments = fragmentCache(entities);
+        final TimingListener     listener  = entities.getTimingListener();
+        return entities.loadEntities(entity -> loadEntity(entity, cache, fragments, listener));
+    }
+
+    /**
+     * With multiDocument, streams each file's documents lazily, one at a time (unless they're coming from the {@link ParsedContextCache}, which holds whole files). Otherwise,
+     * just streams the result of {@link #loadAndMap}.
+     */
+    @Override
+    public Stream<LoadableEntities.LoadedEntityScopes> loadAndStream(LoadableEntities entities) {
+        if (!multiDocument) {
+            return loadAndMap(entities).stream();
+        }
+        final ParsedContextCache cache     = entities.getParsedContextCache();
+        final FragmentCache      fragments = fragmentCache(entities);
+        final TimingListener     listener  = entities.getTimingListener();
+        return entities.streamEntities(entity -> loadDocuments(entity, cache, fragments, listener));
+    }
+
+    /**
+     * @return the plugin's cache of included fragments, or if there isn't one, a new one, which at least shares fragments between the entities being loaded
+     */
+    static FragmentCache fragmentCache(LoadableEntities entities) {
+        return entities.getFragmentCache() != null ? entities.getFragmentCache() : new FragmentCache();
+    }
+
+    /**
+     * Loads a single entity, just as {@link #loadAndMap} does each of them. This lets other loaders in this package delegate YAML files to this one.
+     */
+    List<LoadableEntities.LoadedEntityScopes> loadEntity(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, FragmentCache fragments, TimingListener listener) {
+        if (multiDocument) {
+            try (Stream<LoadableEntities.LoadedEntityScopes> documents = loadDocuments(entity, cache, fragments, listener)) {
+                return documents.collect(Collectors.toList());
+            }
+        }
+        return load(entity, cache, fragments, listener);
+    }
+
+    /**
+     * Like {@link #loadEntity}, but streams a multi-document file's documents lazily, just as {@link #loadAndStream} does.
+     */
+    Stream<LoadableEntities.LoadedEntityScopes> streamEntity(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, FragmentCache fragments, TimingListener listener) {
+        return multiDocument ? loadDocuments(entity, cache, fragments, listener) : load(entity, cache, fragments, listener).stream();
+    }
+
+    boolean isMultiDocument() {
+        return multiDocument;
     }
 
-    private List<LoadableEntities.LoadedEntityScopes> load(LoadableEntities.LoadableEntity entity) {
-        final String relativePathToSource = entity.getRelativePath();
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    private List<LoadableEntities.LoadedEntityScopes> load(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, FragmentCache fragments, TimingListener listener) {
         // Figure out the (relative) output filename
-        final int dotIndex = relativePathToSource.lastIndexOf('.');
-        final String newUriPath = (dotIndex != -1 ? relativePathToSource.substring(0, dotIndex) : relativePathToSource)
-                + "." + entity.getFileTypeSuffix();
-        final Path relativePathToOutput = entity.getFileSystem().getPath(newUriPath);
+        final Path relativePathToOutput = entity.getFileSystem().getPath(withoutExtension(entity.getRelativePath()) + "." + entity.getFileTypeSuffix());
+
+        if (cache != null || entity.getLocalPath() != null) {
+            try {
+                final ByteBuffer content = entity.readContent();
+                // a file which includes others can't be cached by its own content alone
+                final Map<?, ?> value = (Map<?, ?>) (cache != null && !mayInclude(content)
+                        ? cache.load(entity, content, cacheSettingsKey, c -> parse(c, entity, fragments, listener))
+                        : parse(content, entity, fragments, listener));
+                return singletonList(entity.withScopes(singletonList(value), relativePathToOutput));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
 
+        final long start = System.nanoTime();
         try (Reader r = new BufferedReader(new InputStreamReader(entity.getFullPathAsUrl().openStream(), UTF_8))) {
-            final Map<?, ?> value = yamlMapper.load(r);
+            final Map<?, ?> value = (Map<?, ?>) yamlMapper.get().load(r, entity, fragments, fragmentParser(fragments));
+            listener.record(PARSE_PHASE, System.nanoTime() - start, 1);
             return singletonList(entity.withScopes(singletonList(value), relativePathToOutput));
         } catch (NullPointerException ex) {
             throw new UncheckedIOException(new IOException("Failed to read from: " + entity.getFullPath(), ex));
@@ -48,4 +202,193 @@ public class YamlTemplatingPluginContextLoader implements TemplatingPluginContex
             throw new UncheckedIOException(ex);
         }
     }
+
+    private Object parse(ByteBuffer content, LoadableEntities.LoadableEntity entity, FragmentCache fragments, TimingListener listener) {
+        final long   start = System.nanoTime();
+        final Object value = yamlMapper.get().load(new InputStreamReader(new ByteBufferInputStream(content), UTF_8), entity, fragments, fragmentParser(fragments));
+        listener.record(PARSE_PHASE, System.nanoTime() - start, 1);
+        return value;
+    }
+
+    private FragmentCache.Parser fragmentParser(FragmentCache fragments) {
+        return fragment -> {
+            // not this thread's usual instance, which is part-way through parsing the file which includes this one
+            final YamlInstance yaml = new YamlInstance(loaderOptions);
+            return yaml.load(new InputStreamReader(new ByteBufferInputStream(fragment.readContent()), UTF_8), fragment, fragments, fragmentParser(fragments));
+        };
+    }
+
+    /**
+     * Loads all the documents in a multi-document file, as a stream of contexts. If there's a cache, the whole file's documents are parsed (or decoded) at once, as a list;
+     * otherwise they're parsed lazily, as the stream is consumed, and the file is closed when the stream is.
+     */
+    private Stream<LoadableEntities.LoadedEntityScopes> loadDocuments(LoadableEntities.LoadableEntity entity, ParsedContextCache cache, FragmentCache fragments,
+            TimingListener listener) {
+        final Reader reader;
+        try {
+            if (cache != null) {
+                final ByteBuffer content = entity.readContent();
+                if (!mayInclude(content)) {
+                    final List<?> documents = (List<?>) cache.load(entity, content, cacheSettingsKey, c -> parseAll(c, entity, fragments, listener));
+                    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new DocumentIterator(entity, documents.iterator(), null), Spliterator.ORDERED), false);
+                }
+                reader = new InputStreamReader(new ByteBufferInputStream(content), UTF_8);
+            } else {
+                reader = entity.getLocalPath() != null
+                        ? new InputStreamReader(new ByteBufferInputStream(entity.readContent()), UTF_8)
+                        : new BufferedReader(new InputStreamReader(entity.getFullPathAsUrl().openStream(), UTF_8));
+            }
+        } catch (NullPointerException ex) {
+            throw new UncheckedIOException(new IOException("Failed to read from: " + entity.getFullPath(), ex));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        // a Yaml instance of its own: a lazy loadAll holds state in it until the stream's finished
+        final Iterator<Object> documents = new YamlInstance(loaderOptions).loadAll(reader, entity, fragments, fragmentParser(fragments)).iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new DocumentIterator(entity, documents, listener), Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+    }
+
+    private List<Object> parseAll(ByteBuffer content, LoadableEntities.LoadableEntity entity, FragmentCache fragments, TimingListener listener) {
+        final long         start     = System.nanoTime();
+        final List<Object> documents = new ArrayList<>();
+        final YamlInstance yaml      = yamlMapper.get();
+        try {
+            for (Object document : yaml.loadAll(new InputStreamReader(new ByteBufferInputStream(content), UTF_8), entity, fragments, fragmentParser(fragments))) {
+                documents.add(document);
+            }
+        } finally {
+            yaml.constructor.setSource(null, null, null);
+        }
+        listener.record(PARSE_PHASE, System.nanoTime() - start, documents.size());
+        return documents;
+    }
+
+    /**
+     * Determines whether some content might use the {@code !include} tag. This is a cheap check, which errs on the side of yes (eg if the tag is mentioned in a comment).
+     */
+    private static boolean mayInclude(ByteBuffer content) {
+        final int last = content.limit() - INCLUDE_TAG_BYTES.length;
+        for (int i = content.position(); i <= last; i++) {
+            int j = 0;
+            while (j < INCLUDE_TAG_BYTES.length && content.get(i + j) == INCLUDE_TAG_BYTES[j]) {
+                j++;
+            }
+            if (j == INCLUDE_TAG_BYTES.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String withoutExtension(String relativePath) {
+        final int dotIndex = relativePath.lastIndexOf('.');
+        return dotIndex != -1 ? relativePath.substring(0, dotIndex) : relativePath;
+    }
+
+    /**
+     * Turns a file's documents into contexts, skipping empty ones, and naming each one's output by its index or its {@code documentNameKey}.
+     */
+    private final class DocumentIterator implements Iterator<LoadableEntities.LoadedEntityScopes> {
+        private final LoadableEntities.LoadableEntity entity;
+        private final Iterator<?>                     documents;
+        private final TimingListener                  listener;
+        private final String                          outputDirectory;
+        private final Set<String>                     names = new HashSet<>();
+        private       Object                          next;
+        private       int                             index = -1;
+
+        /**
+         * @param listener receives the time spent getting each document from the iterator, ie parsing it; null if they're already parsed
+         */
+        DocumentIterator(LoadableEntities.LoadableEntity entity, Iterator<?> documents, TimingListener listener) {
+            this.entity = entity;
+            this.documents = documents;
+            this.listener = listener;
+            this.outputDirectory = withoutExtension(entity.getRelativePath());
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                final long start = System.nanoTime();
+                if (!documents.hasNext()) {
+                    return false;
+                }
+                next = documents.next();
+                index++;
+                if (listener != null) {
+                    listener.record(PARSE_PHASE, System.nanoTime() - start, 1);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public LoadableEntities.LoadedEntityScopes next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Object document = next;
+            next = null;
+            return entity.withScopes(singletonList(document), entity.getFileSystem().getPath(outputDirectory, documentName(document) + "." + entity.getFileTypeSuffix()));
+        }
+
+        private String documentName(Object document) {
+            if (documentNameKey == null) {
+                return Integer.toString(index);
+            }
+            final Object name = document instanceof Map ? ((Map<?, ?>) document).get(documentNameKey) : null;
+            if (name == null) {
+                throw new UncheckedIOException(new IOException("Document " + index + " in " + entity.getFullPath() + " has no '" + documentNameKey + "' to name its output"));
+            }
+            // the name must stay within the file's output directory, and not overwrite another document's output
+            final String nameString = name.toString();
+            if (nameString.isEmpty() || nameString.contains("/") || nameString.contains("\\") || nameString.contains("..")) {
+                throw new UncheckedIOException(new IOException("Document " + index + " in " + entity.getFullPath() + " has an invalid '" + documentNameKey
+                        + "' to name its output: '" + nameString + "'"));
+            }
+            if (!names.add(nameString)) {
+                throw new UncheckedIOException(new IOException("Document " + index + " in " + entity.getFullPath() + " has the same '" + documentNameKey + "' as an earlier one: '"
+                        + nameString + "'"));
+            }
+            return nameString;
+        }
+    }
+
+    /**
+     * A Yaml instance along with its Constructor, which has to be told which file each parse is for, to resolve its includes.
+     */
+    private static final class YamlInstance {
+        private final IncludeConstructor constructor;
+        private final Yaml               yaml;
+
+        YamlInstance(LoaderOptions loaderOptions) {
+            this.constructor = new IncludeConstructor(loaderOptions);
+            this.yaml = new Yaml(constructor);
+        }
+
+        Object load(Reader reader, LoadableEntities.LoadableEntity entity, FragmentCache fragments, FragmentCache.Parser fragmentParser) {
+            constructor.setSource(entity, fragments, fragmentParser);
+            try {
+                return yaml.load(reader);
+            } finally {
+                constructor.setSource(null, null, null);
+            }
+        }
+
+        /**
+         * Note that the documents are parsed as they're iterated, so the caller must reset the source (if this instance is to be reused) once it's finished.
+         */
+        Iterable<Object> loadAll(Reader reader, LoadableEntities.LoadableEntity entity, FragmentCache fragments, FragmentCache.Parser fragmentParser) {
+            constructor.setSource(entity, fragments, fragmentParser);
+            return yaml.loadAll(reader);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+class FragmentCacheTest {
+    private final FileSystem       fs         = Jimfs.newFileSystem(Configuration.unix());
+    private final LoadableEntities entities   = new LoadableEntities(fs.getPath("/").toUri(), singletonList("a.yaml"), "java", fs);
+    private final FragmentCache    cache      = new FragmentCache();
+    private final AtomicInteger    parseCount = new AtomicInteger();
+
+    @Test
+    void shouldParseEachFragmentOnceAndFreezeIt() throws IOException {
+        final Map<Object, Object> value = new LinkedHashMap<>();
+        value.put("list", new ArrayList<>(asList(1, 2)));
+        value.put("set", new HashSet<>(asList("x")));
+
+        final Object first  = cache.get(entities.new LoadableEntity("common/f.yaml"), f -> parse(value));
+        final Object second = cache.get(entities.new LoadableEntity("dir/../common/./f.yaml"), f -> parse(value));
+
+        assertThat(second).isSameAs(first).isEqualTo(value);
+        assertThat(parseCount).hasValue(1);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getRelativePaths()).containsExactly("common/f.yaml");
+
+        final Map<?, ?> map = (Map<?, ?>) first;
+        assertThatThrownBy(map::clear).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> ((List<?>) map.get("list")).clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> ((Set<?>) map.get("set")).clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void shouldRecordEmptyFragment() throws IOException {
+        assertThat(cache.get(entities.new LoadableEntity("empty.yaml"), f -> parse(null))).isNull();
+        assertThat(cache.getRelativePaths()).containsExactly("empty.yaml");
+    }
+
+    @Test
+    void shouldDetectFragmentIncludingItself() {
+        final LoadableEntities.LoadableEntity fragment = entities.new LoadableEntity("f.yaml");
+        assertThatThrownBy(() -> cache.get(fragment, f -> cache.get(f, g -> parse("never")))).isInstanceOf(IOException.class).hasMessageContaining("includes itself");
+        assertThat(cache.size()).isZero();
+    }
+
+    private Object parse(final Object value) {
+        parseCount.incrementAndGet();
+        return value;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.yaml.snakeyaml.Yaml;
+
+class JsonParserTest {
+    private final JsonParser parser = new JsonParser();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"a\": 1, \"b\": [true, false, null], \"c\": {\"d\": \"e\"}}",
+            "[1, -1, 0, 2147483647, 2147483648, -2147483649, 9223372036854775807, 9223372036854775808, -9223372036854775809]",
+            "[1.5, -0.25, 100.0, 1.0e3, 2.5E-2]",
+            "{\"s\": \"quote\\\" backslash\\\\ tab\\t newline\\n unicode\\u00e9\\u20AC\"}",
+            "{\"a\": 1, \"a\": 2}",
+            "  [ ]  ",
+            "{ }",
+            "\"just a string\"",
+    })
+    void shouldParseSameShapesAsSnakeYaml(final String json) throws IOException {
+        final Object expected = new Yaml().load(json);
+        final Object actual   = parser.parse(new StringReader(json));
+        assertThat(actual).isEqualTo(expected);
+        assertThat(classesOf(actual)).isEqualTo(classesOf(expected));
+    }
+
+    @Test
+    void shouldAcceptEscapedSlash() throws IOException {
+        // valid JSON, though not valid YAML 1.1
+        assertThat(parser.parse(new StringReader("\"a\\/b\""))).isEqualTo("a/b");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldParseNumbersToSmallestFittingType() throws IOException {
+        assertThat((List<Object>) parser.parse(new StringReader("[1, 2147483648, 9223372036854775808, 1e3]")))
+                .containsExactly(1, 2147483648L, new BigInteger("9223372036854775808"), 1000.0);
+    }
+
+    @Test
+    void shouldParseAcrossBufferBoundaries() throws IOException {
+        final StringBuilder json = new StringBuilder("\uFEFF{");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("\n  \"key").append(i).append("\": \"value\\n").append(i).append("\"");
+        }
+        json.append("}");
+
+        final Map<?, ?> map = (Map<?, ?>) parser.parse(new StringReader(json.toString()));
+        assertThat(map).hasSize(2000);
+        assertThat(map.get("key1999")).isEqualTo("value\n1999");
+        // and it's reusable
+        assertThat(parser.parse(new StringReader("[2]"))).isEqualTo(singletonList(2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "{", "{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "[01]", "[1.]", "tru", "\"unterminated", "\"bad\\q\"", "{} x", "{'a': 1}", "[\"\t\"]" })
+    void shouldRejectInvalidJson(final String json) {
+        assertThatThrownBy(() -> parser.parse(new StringReader(json))).isInstanceOf(IOException.class).hasMessageContaining("line 1");
+    }
+
+    @Test
+    void shouldReportErrorPosition() {
+        assertThatThrownBy(() -> parser.parse(new StringReader("{\n  \"a\": 1,\n  \"b\" 2\n}")))
+                .isInstanceOf(IOException.class).hasMessage("Expected ':' after an object key, at line 3, column 7");
+    }
+
+    @Test
+    void shouldRejectExcessiveNesting() {
+        final StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            json.append('[');
+        }
+        assertThatThrownBy(() -> parser.parse(new StringReader(json.toString()))).isInstanceOf(IOException.class).hasMessageContaining("nested");
+    }
+
+    private static Object classesOf(final Object value) {
+        if (value instanceof Map) {
+            final Map<Object, Object> classes = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> classes.put(k, classesOf(v)));
+            return value.getClass().getName() + classes;
+        } else if (value instanceof List) {
+            final List<Object> classes = new ArrayList<>();
+            ((List<?>) value).forEach(v -> classes.add(classesOf(v)));
+            return value.getClass().getName() + classes;
+        }
+        return value == null ? "null" : value.getClass().getName();
+    }
+}
@@ -5,13 +5,28 @@
  */
 package net.zscript.maven.templating.contextloader;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -20,6 +35,7 @@ import static org.assertj.core.api.Assertions.tuple;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class LoadableEntitiesTest {
     private final FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
@@ -50,6 +66,127 @@ class LoadableEntitiesTest {
                         tuple(singletonList("content+baz/"), fs.getPath("a/baz/"), "baz/", new URI("file:///foo/"), new URI("file:///foo/baz/")));
     }
 
+    @Test
+    void shouldCreateEntitiesWithSubsetOfPaths() throws URISyntaxException {
+        final LoadableEntities le = new LoadableEntities(new URI("file:///foo/"), Arrays.asList("bar", "baz", "qux"), "java", fs);
+
+        final LoadableEntities subset = le.withRelativePaths(Arrays.asList("baz", "qux"));
+
+        assertThat(le.getRelativePaths()).containsExactly("bar", "baz", "qux");
+        assertThat(subset.getRelativePaths()).containsExactly("baz", "qux");
+        assertThat(subset.loadEntities(entity -> singletonList(entity.withScopes(emptyList(), fs.getPath(entity.getRelativePath())))))
+                .extracting(LoadableEntities.LoadedEntityScopes::getFullPath, LoadableEntities.LoadedEntityScopes::getFileTypeSuffix)
+                .containsExactly(tuple(new URI("file:///foo/baz"), "java"), tuple(new URI("file:///foo/qux"), "java"));
+    }
+
+    @Test
+    void shouldLoadEntitiesInParallelPreservingOrder() throws URISyntaxException {
+        final List<String>     relPaths = IntStream.range(0, 500).mapToObj(i -> "f" + i).collect(toList());
+        final LoadableEntities le       = new LoadableEntities(new URI("file:///foo/"), relPaths, "java", fs);
+
+        final LoadableEntities parallel = le.withParallelLoading(true);
+
+        assertThat(le.isParallelLoading()).isFalse();
+        assertThat(parallel.isParallelLoading()).isTrue();
+        assertThat(parallel.withRelativePaths(relPaths).isParallelLoading()).isTrue();
+        assertThat(parallel.loadEntities(entity -> singletonList(entity.withScopes(emptyList(), fs.getPath(entity.getRelativePath())))))
+                .extracting(LoadableEntities.LoadedEntityScopes::getRelativePath)
+                .containsExactlyElementsOf(relPaths);
+    }
+
+    @Test
+    void shouldStreamEntitiesLazily() throws URISyntaxException {
+        final List<String>     events = new ArrayList<>();
+        final LoadableEntities le     = new LoadableEntities(new URI("file:///foo/"), Arrays.asList("a", "b", "c"), "java", fs).withParallelLoading(true);
+
+        try (Stream<LoadableEntities.LoadedEntityScopes> stream = le.streamEntities(entity -> {
+            events.add("load " + entity.getRelativePath());
+            return IntStream.range(0, entity.getRelativePath().equals("b") ? 0 : 3)
+                    .mapToObj(i -> {
+                        events.add("make " + entity.getRelativePath() + i);
+                        return entity.withScopes(singletonList(i), fs.getPath(entity.getRelativePath() + i));
+                    })
+                    .onClose(() -> events.add("close " + entity.getRelativePath()));
+        })) {
+            final Iterator<LoadableEntities.LoadedEntityScopes> contexts = stream.iterator();
+            assertThat(contexts.next().getRelativeOutputPath()).isEqualTo(fs.getPath("a0"));
+            assertThat(contexts.next().getRelativeOutputPath()).isEqualTo(fs.getPath("a1"));
+            assertThat(events).containsExactly("load a", "make a0", "make a1");
+
+            contexts.next();
+            assertThat(contexts.next().getRelativeOutputPath()).isEqualTo(fs.getPath("c0"));
+            assertThat(events).containsExactly("load a", "make a0", "make a1", "make a2", "close a", "load b", "close b", "load c", "make c0");
+        }
+        assertThat(events).endsWith("close c");
+    }
+
+    @Test
+    void shouldReadLocalFileContentDirectly() throws IOException {
+        final Path root = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(root.resolve("a.txt"), "some content".getBytes(UTF_8));
+
+        final LoadableEntities.LoadableEntity entity = new LoadableEntities(root.toUri(), singletonList("a.txt"), "java", fs).new LoadableEntity("a.txt");
+
+        assertThat(entity.getLocalPath()).isEqualTo(root.resolve("a.txt"));
+        final ByteBuffer content = entity.readContent();
+        assertThat(content.isReadOnly()).isTrue();
+        assertThat(UTF_8.decode(content).toString()).isEqualTo("some content");
+    }
+
+    @Test
+    void shouldMemoryMapLargeLocalFiles(@TempDir Path tempDir) throws IOException {
+        final byte[] bytes = new byte[LoadableEntities.MAPPING_THRESHOLD];
+        Arrays.fill(bytes, (byte) 'x');
+        bytes[bytes.length - 1] = 'y';
+        Files.write(tempDir.resolve("big.yaml"), bytes);
+
+        final LoadableEntities.LoadableEntity entity = new LoadableEntities(tempDir.toUri(), singletonList("big.yaml"), "java", FileSystems.getDefault())
+                .new LoadableEntity("big.yaml");
+
+        final ByteBuffer content = entity.readContent();
+        assertThat(content).isInstanceOf(MappedByteBuffer.class);
+        assertThat(content.remaining()).isEqualTo(bytes.length);
+        assertThat(content.get(bytes.length - 1)).isEqualTo((byte) 'y');
+    }
+
+    @Test
+    void shouldReadContentFromArchive(@TempDir Path tempDir) throws IOException {
+        final Path zip = tempDir.resolve("models.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            writeEntry(out, "models/a.yaml", "a content");
+            writeEntry(out, "models/sub/b.yaml", "b content");
+        }
+
+        try (FileSystem zipFs = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            final LoadableEntities le = new LoadableEntities(zipFs.getPath("/models"), Arrays.asList("a.yaml", "sub/b.yaml"), "java", FileSystems.getDefault());
+
+            final LoadableEntities.LoadableEntity entity = le.new LoadableEntity("sub/b.yaml");
+            assertThat(entity.getRootPath().toString()).startsWith("jar:").endsWith("models.zip!/models/");
+            assertThat(entity.getFullPath().toString()).endsWith("models.zip!/models/sub/b.yaml");
+            assertThat(entity.getLocalPath().getFileSystem()).isSameAs(zipFs);
+            assertThat(UTF_8.decode(entity.readContent()).toString()).isEqualTo("b content");
+            try (InputStream in = entity.getFullPathAsUrl().openStream()) {
+                assertThat(in).hasContent("b content");
+            }
+            assertThat(entity.getFileSystem()).isSameAs(FileSystems.getDefault());
+        }
+    }
+
+    private static void writeEntry(final ZipOutputStream out, final String name, final String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(UTF_8));
+        out.closeEntry();
+    }
+
+    @Test
+    void shouldReadNonLocalContentThroughUrl() throws IOException {
+        final LoadableEntities.LoadableEntity entity = new LoadableEntities(URI.create("classpath:/net/zscript/maven/templating/contextloader/"),
+                singletonList("LoadableEntitiesTest.class"), "java", fs).new LoadableEntity("LoadableEntitiesTest.class");
+
+        assertThat(entity.getLocalPath()).isNull();
+        assertThat(entity.readContent().getInt()).isEqualTo(0xCAFEBABE);
+    }
+
     @Test
     void shouldRejectAbsoluteEntityPath() {
         assertThatExceptionOfType(IllegalArgumentException.class)
@@ -0,0 +1,97 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MultiFormatTemplatingPluginContextLoaderTest {
+    private final FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
+
+    private final MultiFormatTemplatingPluginContextLoader contextLoader = new MultiFormatTemplatingPluginContextLoader();
+
+    private Path rootDirPath;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("a.json"), singletonList("{\"name\": \"json\", \"list\": [1, 2.5, true, null], \"nested\": {\"x\": \"y\"}}"));
+        Files.write(rootDirPath.resolve("b.yaml"), singletonList("{name: yaml, list: [1, 2.5, true, null], nested: {x: y}}"));
+        Files.write(rootDirPath.resolve("c.yml"), singletonList("name: yml"));
+        Files.write(rootDirPath.resolve("d.properties"), asList("name=properties", "a.b=dotted"));
+    }
+
+    @Test
+    public void shouldParseEachFileByItsSuffix() {
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(entities("a.json", "b.yaml", "c.yml", "d.properties"));
+
+        assertThat(loadedEntities).<Object>extracting(e -> ((Map<?, ?>) e.getScopes().get(0)).get("name")).containsExactly("json", "yaml", "yml", "properties");
+        assertThat(loadedEntities).extracting(e -> e.getRelativeOutputPath().toString()).containsExactly("a.java", "b.java", "c.java", "d.java");
+        assertThat(((Map<?, ?>) loadedEntities.get(3).getScopes().get(0)).entrySet()).extracting(Object::toString).containsExactly("a.b=dotted", "name=properties");
+    }
+
+    @Test
+    public void shouldProduceSameShapeForJsonAsYaml() {
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(entities("a.json", "b.yaml"));
+
+        final Map<?, ?> json = (Map<?, ?>) loadedEntities.get(0).getScopes().get(0);
+        final Map<?, ?> yaml = (Map<?, ?>) loadedEntities.get(1).getScopes().get(0);
+        assertThat(json.get("list")).isEqualTo(yaml.get("list")).isInstanceOf(yaml.get("list").getClass());
+        assertThat(json.get("nested")).isEqualTo(yaml.get("nested")).isInstanceOf(yaml.get("nested").getClass());
+        assertThat(json.getClass()).isEqualTo(yaml.getClass());
+    }
+
+    @Test
+    public void shouldLoadThroughCache() throws IOException {
+        final ParsedContextCache cache = new ParsedContextCache(Files.createDirectory(fs.getPath("/cache")), 1_000_000);
+        final LoadableEntities   le    = entities("a.json", "d.properties").withParsedContextCache(cache);
+
+        final List<LoadableEntities.LoadedEntityScopes> first  = contextLoader.loadAndMap(le);
+        final List<LoadableEntities.LoadedEntityScopes> second = contextLoader.loadAndMap(le);
+
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(second).extracting(e -> e.getScopes().get(0)).containsExactlyElementsOf(first.stream().map(e -> e.getScopes().get(0)).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldStreamMultiDocumentYamlWithOtherFormats() throws IOException {
+        Files.write(rootDirPath.resolve("e.yaml"), asList("n: 1", "---", "n: 2"));
+        contextLoader.init(singletonMap("multiDocument", "true"));
+
+        try (Stream<LoadableEntities.LoadedEntityScopes> stream = contextLoader.loadAndStream(entities("a.json", "e.yaml"))) {
+            assertThat(stream).extracting(e -> e.getRelativeOutputPath().toString()).containsExactly("a.java", "e/0.java", "e/1.java");
+        }
+    }
+
+    @Test
+    public void shouldReportInvalidJsonWithItsLocation() throws IOException {
+        Files.write(rootDirPath.resolve("bad.json"), singletonList("{\"a\": }"));
+        assertThatThrownBy(() -> contextLoader.loadAndMap(entities("bad.json")))
+                .isInstanceOf(UncheckedIOException.class).hasMessageContaining("bad.json").hasMessageContaining("line 1, column 7");
+    }
+
+    private LoadableEntities entities(final String... relativePaths) {
+        return new LoadableEntities(rootDirPath.toUri(), asList(relativePaths), "java", fs);
+    }
+}
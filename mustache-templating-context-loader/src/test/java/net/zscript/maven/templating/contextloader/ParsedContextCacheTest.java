@@ -0,0 +1,189 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ParsedContextCacheTest {
+    private final FileSystem    fs         = Jimfs.newFileSystem(Configuration.unix());
+    private final Path          cacheDir   = fs.getPath("/cache");
+    private final AtomicInteger parseCount = new AtomicInteger();
+
+    private Path             sourceDir;
+    private LoadableEntities entities;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createDirectory(fs.getPath("/src"));
+        entities = new LoadableEntities(sourceDir.toUri(), singletonList("a.txt"), "java", fs);
+    }
+
+    @Test
+    void shouldParseOnceThenDecodeEquivalentValue() throws IOException {
+        final Map<Object, Object> value = new LinkedHashMap<>();
+        value.put("s", "text é");
+        value.put("i", 1);
+        value.put("l", 1L << 40);
+        value.put("bi", new BigInteger("123456789012345678901234567890"));
+        value.put("d", 1.5);
+        value.put("f", 2.5f);
+        value.put("bd", new BigDecimal("3.25"));
+        value.put("b", true);
+        value.put("n", null);
+        value.put("date", new Date(1_700_000_000_000L));
+        value.put("list", Arrays.asList("x", Arrays.asList(1, 2)));
+        value.put("set", new LinkedHashSet<>(Arrays.asList("p", "q")));
+        value.put(7, "non-string key");
+        writeSource("a.txt", "content-a");
+
+        final ParsedContextCache cache = new ParsedContextCache(cacheDir, 1_000_000);
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(value))).isSameAs(value);
+
+        final Object decoded = new ParsedContextCache(cacheDir, 1_000_000).load(entity("a.txt"), "v1", content -> parse(value));
+        assertThat(decoded).isEqualTo(value).isInstanceOf(LinkedHashMap.class);
+        assertThat(((Map<?, ?>) decoded).keySet().toArray()).containsExactly(value.keySet().toArray());
+        assertThat(((Map<?, ?>) decoded).get("bi")).isInstanceOf(BigInteger.class);
+        assertThat(((Map<?, ?>) decoded).get("f")).isInstanceOf(Float.class);
+        assertThat(parseCount).hasValue(1);
+    }
+
+    @Test
+    void shouldReparseIfContentOrSettingsChange() throws IOException {
+        final ParsedContextCache cache = new ParsedContextCache(cacheDir, 1_000_000);
+        writeSource("a.txt", "content-a");
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(UTF_8.decode(content).toString()))).isEqualTo("content-a");
+        assertThat(cache.load(entity("a.txt"), "v2", content -> parse(UTF_8.decode(content).toString()))).isEqualTo("content-a");
+        writeSource("a.txt", "content-b");
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(UTF_8.decode(content).toString()))).isEqualTo("content-b");
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(UTF_8.decode(content).toString()))).isEqualTo("content-b");
+
+        assertThat(parseCount).hasValue(3);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldReturnButNotCacheUnencodableValues() throws IOException {
+        final ParsedContextCache cache = new ParsedContextCache(cacheDir, 1_000_000);
+        final Object             value = new Object();
+        writeSource("a.txt", "content-a");
+
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(value))).isSameAs(value);
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse(value))).isSameAs(value);
+        assertThat(parseCount).hasValue(2);
+    }
+
+    @Test
+    void shouldEvictEntriesForMissingOrChangedSources() throws IOException {
+        writeSource("a.txt", "content-a");
+        writeSource("b.txt", "content-b");
+        writeSource("c.txt", "content-c");
+        final ParsedContextCache firstRun = new ParsedContextCache(cacheDir, 1_000_000);
+        for (String name : Arrays.asList("a.txt", "b.txt", "c.txt")) {
+            firstRun.load(entity(name), "v1", content -> parse(UTF_8.decode(content).toString()));
+        }
+        assertThat(cacheEntries()).hasSize(3);
+
+        Files.delete(sourceDir.resolve("b.txt"));
+        writeSource("c.txt", "content-c2");
+        final ParsedContextCache secondRun = new ParsedContextCache(cacheDir, 1_000_000);
+        secondRun.load(entity("c.txt"), "v1", content -> parse(UTF_8.decode(content).toString()));
+
+        // b's entry has no source, and c's original entry is superseded; a's is retained, as is c's new one
+        assertThat(secondRun.prune()).isEqualTo(2);
+        assertThat(cacheEntries()).hasSize(2);
+        assertThat(new ParsedContextCache(cacheDir, 1_000_000).load(entity("a.txt"), "v1", content -> parse("reparsed"))).isEqualTo("content-a");
+    }
+
+    @Test
+    void shouldKeepEntriesInMemoryIfRequested() throws IOException {
+        writeSource("a.txt", "content-a");
+        final ParsedContextCache cache = new ParsedContextCache(cacheDir, 1_000_000, 1_000_000);
+        final Object             first = cache.load(entity("a.txt"), "v1", content -> parse(new LinkedHashMap<>(singletonMap("k", "v"))));
+
+        // the disk entry has gone, but it's remembered - and each load gets a distinct copy of the tree
+        for (Path entry : cacheEntries()) {
+            Files.delete(entry);
+        }
+        final Object second = cache.load(entity("a.txt"), "v1", content -> parse("reparsed"));
+        assertThat(second).isEqualTo(first).isNotSameAs(first);
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse("reparsed"))).isEqualTo(first).isNotSameAs(second);
+        assertThat(parseCount).hasValue(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+
+        // but only for the content it was parsed from
+        writeSource("a.txt", "content-a2");
+        assertThat(cache.load(entity("a.txt"), "v1", content -> parse("reparsed"))).isEqualTo("reparsed");
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntriesBeyondSizeLimit() throws IOException {
+        final ParsedContextCache fill = new ParsedContextCache(cacheDir, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            writeSource("f" + i, "content-" + i);
+            fill.load(entity("f" + i), "v1", content -> parse(UTF_8.decode(content).toString()));
+        }
+        final long entrySize = Files.size(cacheEntries().get(0));
+        // age all the entries, then use just f3 and f4, making them the most recent
+        for (Path entry : cacheEntries()) {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(0));
+        }
+        final ParsedContextCache recent = new ParsedContextCache(cacheDir, Long.MAX_VALUE);
+        for (int i = 3; i < 5; i++) {
+            recent.load(entity("f" + i), "v1", content -> parse("unexpected"));
+        }
+
+        final ParsedContextCache pruning = new ParsedContextCache(cacheDir, 2 * entrySize);
+        assertThat(pruning.prune()).isEqualTo(3);
+        assertThat(cacheEntries()).hasSize(2);
+        assertThat(pruning.load(entity("f4"), "v1", content -> parse("reparsed"))).isEqualTo("content-4");
+        assertThat(pruning.load(entity("f0"), "v1", content -> parse("reparsed"))).isEqualTo("reparsed");
+    }
+
+    private Object parse(final Object result) {
+        parseCount.incrementAndGet();
+        return result;
+    }
+
+    private LoadableEntities.LoadableEntity entity(final String name) {
+        return entities.new LoadableEntity(name);
+    }
+
+    private void writeSource(final String name, final String content) throws IOException {
+        Files.write(sourceDir.resolve(name), content.getBytes(UTF_8));
+    }
+
+    private List<Path> cacheEntries() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(p -> p.toString().endsWith(".ctx")).collect(toList());
+        }
+    }
+}
@@ -13,17 +13,24 @@ import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import org.junit.jupiter.api.Test;
+import org.yaml.snakeyaml.error.YAMLException;
 
 class YamlTemplatingPluginContextLoaderTest {
     private final FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
@@ -59,6 +66,25 @@ class YamlTemplatingPluginContextLoaderTest {
         assertThat(loadedEntities.get(0).getRelativeOutputPath()).isEqualTo(fs.getPath("baz/a.java"));
     }
 
+    @Test
+    public void shouldLoadEntitiesInParallel() throws IOException {
+        final Path         rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        final List<String> relPaths    = IntStream.range(0, 200).mapToObj(i -> "f" + i + ".yaml").collect(toList());
+        for (int i = 0; i < relPaths.size(); i++) {
+            Files.write(rootDirPath.resolve(relPaths.get(i)), singletonList("{n: " + i + ", b: [x, y]}"));
+        }
+
+        final LoadableEntities le = new LoadableEntities(rootDirPath.toUri(), relPaths, "java", fs).withParallelLoading(true);
+
+        assertThat(contextLoader.isThreadSafe()).isTrue();
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(le);
+
+        assertThat(loadedEntities).<Object>extracting(e -> ((Map<?, ?>) e.getScopes().get(0)).get("n"))
+                .containsExactlyElementsOf(IntStream.range(0, 200).boxed().collect(toList()));
+        assertThat(loadedEntities).extracting(e -> e.getRelativeOutputPath().toString())
+                .containsExactlyElementsOf(IntStream.range(0, 200).mapToObj(i -> "f" + i + ".java").collect(toList()));
+    }
+
     @Test
     public void shouldFailWithNonexistentClasspathResource() throws URISyntaxException {
         final LoadableEntities le = new LoadableEntities(new URI("classpath:/"), singletonList("bar"), "java", fs);
@@ -70,4 +96,171 @@ class YamlTemplatingPluginContextLoaderTest {
         final LoadableEntities le = new LoadableEntities(new URI("file:/"), singletonList("bar"), "java", fs);
         assertThatThrownBy(() -> contextLoader.loadAndMap(le)).isInstanceOf(UncheckedIOException.class).hasCauseInstanceOf(IOException.class);
     }
+
+    @Test
+    public void shouldProduceContextPerDocumentNamedByIndex() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("a: 1", "---", "a: 2", "---", "---", "a: 4"));
+        contextLoader.init(singletonMap("multiDocument", "true"));
+
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs));
+
+        assertThat(loadedEntities).<Object>extracting(e -> ((Map<?, ?>) e.getScopes().get(0)).get("a")).containsExactly(1, 2, 4);
+        assertThat(loadedEntities).extracting(e -> e.getRelativeOutputPath().toString()).containsExactly("defs/0.java", "defs/1.java", "defs/3.java");
+    }
+
+    @Test
+    public void shouldNameDocumentsByKey() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("name: alpha", "---", "name: beta"));
+        contextLoader.init(properties("multiDocument", "true", "documentNameKey", "name"));
+
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs));
+
+        assertThat(loadedEntities).extracting(e -> e.getRelativeOutputPath().toString()).containsExactly("defs/alpha.java", "defs/beta.java");
+    }
+
+    @Test
+    public void shouldFailIfDocumentHasNoNameKey() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("name: alpha", "---", "other: beta"));
+        contextLoader.init(properties("multiDocument", "true", "documentNameKey", "name"));
+
+        final LoadableEntities le = new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs);
+        assertThatThrownBy(() -> contextLoader.loadAndMap(le)).isInstanceOf(UncheckedIOException.class).hasMessageContaining("Document 1");
+    }
+
+    @Test
+    public void shouldFailIfDocumentNameIsDuplicatedOrEscapesDirectory() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("dup.yaml"), asList("name: alpha", "---", "name: alpha"));
+        Files.write(rootDirPath.resolve("escape.yaml"), asList("name: alpha", "---", "name: ../x"));
+        contextLoader.init(properties("multiDocument", "true", "documentNameKey", "name"));
+
+        final LoadableEntities dup = new LoadableEntities(rootDirPath.toUri(), singletonList("dup.yaml"), "java", fs);
+        assertThatThrownBy(() -> contextLoader.loadAndMap(dup)).isInstanceOf(UncheckedIOException.class).hasMessageContaining("same 'name'");
+        final LoadableEntities escape = new LoadableEntities(rootDirPath.toUri(), singletonList("escape.yaml"), "java", fs);
+        assertThatThrownBy(() -> contextLoader.loadAndMap(escape)).isInstanceOf(UncheckedIOException.class).hasMessageContaining("invalid 'name'");
+    }
+
+    @Test
+    public void shouldStreamDocumentsLazily() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        // the second document is malformed, so it can only have been parsed if the stream went beyond the first
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("a: 1", "---", "a: [unclosed"));
+        contextLoader.init(singletonMap("multiDocument", "true"));
+
+        try (Stream<LoadableEntities.LoadedEntityScopes> stream = contextLoader.loadAndStream(new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs))) {
+            final Iterator<LoadableEntities.LoadedEntityScopes> it = stream.iterator();
+            assertThat(((Map<?, ?>) it.next().getScopes().get(0)).get("a")).isEqualTo(1);
+            assertThatThrownBy(it::next).isInstanceOf(YAMLException.class);
+        }
+    }
+
+    @Test
+    public void shouldLoadDocumentsThroughCache() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("a: 1", "---", "a: 2"));
+        contextLoader.init(singletonMap("multiDocument", "true"));
+
+        final ParsedContextCache cache = new ParsedContextCache(Files.createDirectory(fs.getPath("/cache")), 1_000_000);
+        final LoadableEntities   le    = new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs).withParsedContextCache(cache);
+        contextLoader.loadAndMap(le);
+
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(le);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(loadedEntities).<Object>extracting(e -> ((Map<?, ?>) e.getScopes().get(0)).get("a")).containsExactly(1, 2);
+        assertThat(loadedEntities).extracting(e -> e.getRelativeOutputPath().toString()).containsExactly("defs/0.java", "defs/1.java");
+    }
+
+    @Test
+    public void shouldApplyConfiguredLimits() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("a.yaml"), singletonList("{a: [[[x]]]}"));
+        final LoadableEntities le = new LoadableEntities(rootDirPath.toUri(), singletonList("a.yaml"), "java", fs);
+
+        contextLoader.init(singletonMap("nestingDepthLimit", "2"));
+        assertThatThrownBy(() -> contextLoader.loadAndMap(le)).isInstanceOf(YAMLException.class);
+
+        assertThatThrownBy(() -> contextLoader.init(singletonMap("codePointLimit", "lots"))).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("codePointLimit");
+    }
+
+    @Test
+    public void shouldShareIncludedFragmentsBetweenContexts() throws IOException {
+        final Path rootDirPath = Files.createDirectories(fs.getPath("/foo/defs"));
+        Files.createDirectory(fs.getPath("/foo/common"));
+        Files.write(fs.getPath("/foo/common/types.yaml"), asList("kinds: [int, long]", "size: !include sizes.yaml"));
+        Files.write(fs.getPath("/foo/common/sizes.yaml"), singletonList("{int: 4, long: 8}"));
+        Files.write(rootDirPath.resolve("a.yaml"), asList("name: a", "types: !include ../common/types.yaml"));
+        Files.write(rootDirPath.resolve("b.yaml"), asList("name: b", "types: !include ./../common/types.yaml"));
+
+        final FragmentCache    fragments = new FragmentCache();
+        final LoadableEntities le        = new LoadableEntities(fs.getPath("/foo").toUri(), asList("defs/a.yaml", "defs/b.yaml"), "java", fs).withFragmentCache(fragments);
+
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(le);
+
+        final Map<?, ?> typesA = (Map<?, ?>) ((Map<?, ?>) loadedEntities.get(0).getScopes().get(0)).get("types");
+        final Map<?, ?> typesB = (Map<?, ?>) ((Map<?, ?>) loadedEntities.get(1).getScopes().get(0)).get("types");
+        assertThat(typesA.get("kinds")).isEqualTo(asList("int", "long"));
+        assertThat(((Map<?, ?>) typesA.get("size")).get("long")).isEqualTo(8);
+        assertThat(typesB).isSameAs(typesA);
+        assertThatThrownBy(typesA::clear).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> ((List<?>) typesA.get("kinds")).clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(fragments.getRelativePaths()).containsExactly("common/sizes.yaml", "common/types.yaml");
+    }
+
+    @Test
+    public void shouldFailOnBadIncludes() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("missing.yaml"), singletonList("a: !include nothing.yaml"));
+        Files.write(rootDirPath.resolve("loop.yaml"), singletonList("a: !include loop2.yaml"));
+        Files.write(rootDirPath.resolve("loop2.yaml"), singletonList("b: !include loop.yaml"));
+        Files.write(rootDirPath.resolve("absolute.yaml"), singletonList("a: !include /etc/passwd"));
+
+        assertThatThrownBy(() -> contextLoader.loadAndMap(new LoadableEntities(rootDirPath.toUri(), singletonList("missing.yaml"), "java", fs)))
+                .isInstanceOf(YAMLException.class).hasMessageContaining("Cannot include 'nothing.yaml'");
+        assertThatThrownBy(() -> contextLoader.loadAndMap(new LoadableEntities(rootDirPath.toUri(), singletonList("loop2.yaml"), "java", fs)))
+                .isInstanceOf(YAMLException.class).hasMessageContaining("includes itself");
+        assertThatThrownBy(() -> contextLoader.loadAndMap(new LoadableEntities(rootDirPath.toUri(), singletonList("absolute.yaml"), "java", fs)))
+                .isInstanceOf(YAMLException.class).hasMessageContaining("must be relative");
+    }
+
+    @Test
+    public void shouldNotCacheFilesWithIncludes() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("a.yaml"), singletonList("a: !include fragment.yaml"));
+        Files.write(rootDirPath.resolve("fragment.yaml"), singletonList("[1, 2]"));
+
+        final ParsedContextCache cache = new ParsedContextCache(Files.createDirectory(fs.getPath("/cache")), 1_000_000);
+        final LoadableEntities   le    = new LoadableEntities(rootDirPath.toUri(), singletonList("a.yaml"), "java", fs).withParsedContextCache(cache);
+        contextLoader.loadAndMap(le.withFragmentCache(new FragmentCache()));
+
+        // a changed fragment is seen by a new execution's fragment cache, even though the including file is unchanged
+        Files.write(rootDirPath.resolve("fragment.yaml"), singletonList("[3]"));
+        final List<LoadableEntities.LoadedEntityScopes> loadedEntities = contextLoader.loadAndMap(le.withFragmentCache(new FragmentCache()));
+        assertThat(((Map<?, ?>) loadedEntities.get(0).getScopes().get(0)).get("a")).isEqualTo(singletonList(3));
+        assertThat(cache.getHitCount()).isZero();
+    }
+
+    @Test
+    public void shouldIncludeFragmentsInStreamedDocuments() throws IOException {
+        final Path rootDirPath = Files.createDirectory(fs.getPath("/foo"));
+        Files.write(rootDirPath.resolve("defs.yaml"), asList("a: !include fragment.yaml", "---", "a: !include fragment.yaml"));
+        Files.write(rootDirPath.resolve("fragment.yaml"), singletonList("x: 1"));
+        contextLoader.init(singletonMap("multiDocument", "true"));
+
+        try (Stream<LoadableEntities.LoadedEntityScopes> stream = contextLoader.loadAndStream(new LoadableEntities(rootDirPath.toUri(), singletonList("defs.yaml"), "java", fs))) {
+            final List<Object> values = stream.map(e -> ((Map<?, ?>) e.getScopes().get(0)).get("a")).collect(toList());
+            assertThat(values).containsExactly(singletonMap("x", 1), singletonMap("x", 1));
+            assertThat(values.get(1)).isSameAs(values.get(0));
+        }
+    }
+
+    private static Map<String, String> properties(String... keysAndValues) {
+        final Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return properties;
+    }
 }
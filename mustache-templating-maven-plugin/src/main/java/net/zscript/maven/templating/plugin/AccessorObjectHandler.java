@@ -0,0 +1,103 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.mustachejava.MustacheException;
+import com.github.mustachejava.ObjectHandler;
+import com.github.mustachejava.reflect.Guard;
+import com.github.mustachejava.reflect.ReflectionWrapper;
+import com.github.mustachejava.util.GuardException;
+import com.github.mustachejava.util.Wrapper;
+
+/**
+ * An ObjectHandler for contexts which include POJOs (eg from a custom context loader), as well as Maps. Map scopes take the {@link MapObjectHandler} fast path; for other objects,
+ * Mustache finds the getter, method or field for each name as usual, but each is then called through a MethodHandle rather than by reflection. The MethodHandles are created once
+ * per member, and shared by every template and render in the build.
+ * <p>
+ * Members taking arguments (which Mustache only uses for particular Map lookups) are still called reflectively.
+ */
+final class AccessorObjectHandler extends MapObjectHandler {
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /** The accessors for each class's members, which are discarded along with the class. */
+    private static final ClassValue<ConcurrentMap<Member, MethodHandle>> ACCESSORS = new ClassValue<ConcurrentMap<Member, MethodHandle>>() {
+        @Override
+        protected ConcurrentMap<Member, MethodHandle> computeValue(final Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /** Marks members which can't be called through a MethodHandle, so aren't tried again. */
+    private static final MethodHandle UNAVAILABLE = MethodHandles.constant(Object.class, null);
+
+    @Override
+    protected Wrapper createWrapper(final int scopeIndex, final Wrapper[] wrappers, final List<? extends Guard> guards, final AccessibleObject member,
+            final Object[] arguments) {
+        final MethodHandle accessor = (arguments == null || arguments.length == 0) && member instanceof Member ? accessorFor((Member) member) : UNAVAILABLE;
+        if (accessor == UNAVAILABLE) {
+            return super.createWrapper(scopeIndex, wrappers, guards, member, arguments);
+        }
+        return new AccessorWrapper(scopeIndex, wrappers, guards.toArray(new Guard[0]), member, arguments, this, accessor);
+    }
+
+    /**
+     * @param member a no-argument method or a field, which Mustache has already made accessible
+     * @return a MethodHandle taking the scope object and returning the member's value, or UNAVAILABLE
+     */
+    private static MethodHandle accessorFor(final Member member) {
+        return ACCESSORS.get(member.getDeclaringClass()).computeIfAbsent(member, m -> {
+            try {
+                final MethodHandle handle = m instanceof Method
+                        ? MethodHandles.lookup().unreflect((Method) m)
+                        : MethodHandles.lookup().unreflectGetter((Field) m);
+                // static members ignore the scope
+                final MethodHandle withScope = Modifier.isStatic(m.getModifiers()) ? MethodHandles.dropArguments(handle, 0, Object.class) : handle;
+                return withScope.type().parameterCount() == 1 ? withScope.asType(ACCESSOR_TYPE) : UNAVAILABLE;
+            } catch (final IllegalAccessException | RuntimeException e) {
+                return UNAVAILABLE;
+            }
+        });
+    }
+
+    /**
+     * A ReflectionWrapper (so the guards, scope-unwrapping and descriptions are all unchanged) which calls its member through a MethodHandle.
+     */
+    private static final class AccessorWrapper extends ReflectionWrapper {
+        private final MethodHandle accessor;
+
+        AccessorWrapper(final int scopeIndex, final Wrapper[] wrappers, final Guard[] guards, final AccessibleObject member, final Object[] arguments,
+                final ObjectHandler oh, final MethodHandle accessor) {
+            super(scopeIndex, wrappers, guards, member, arguments, oh);
+            this.accessor = accessor;
+        }
+
+        @Override
+        public Object call(final List<Object> scopes) throws GuardException {
+            guardCall(scopes);
+            final Object scope = oh.coerce(unwrap(scopes));
+            if (scope == null) {
+                return null;
+            }
+            try {
+                return (Object) accessor.invokeExact(scope);
+            } catch (final Throwable e) {
+                throw new MustacheException("Error invoking " + (method != null ? method : field) + " on " + scope.getClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Zip and jar archives, opened as zip FileSystems so that contexts and templates can be read directly from them, without being extracted first. Each archive is opened once, and
+ * then shared by every execution that uses it; it's reopened if the archive file changes (eg if a module earlier in the build produces it), and the FileSystems are all closed at
+ * the end of the build session.
+ * <p>
+ * An archive location is either a "jar:" URI, as in "jar:file:/models.zip!/contexts", or a local file path ending in ".zip" or ".jar", as in "models.zip", optionally followed by
+ * "!/" and a directory within the archive, as in "models.zip!/contexts".
+ * <p>
+ * Obtain the session's instance using {@link BuildSessionScope#get}. This class is thread-safe.
+ */
+final class ArchiveFileSystems implements AutoCloseable {
+    private static final String ENTRY_SEPARATOR = "!/";
+
+    private final ConcurrentMap<Path, Archive> archives   = new ConcurrentHashMap<>();
+    private final List<FileSystem>             superseded = new ArrayList<>();
+
+    /**
+     * Opens the archive, or returns the FileSystem already opened for it if the file hasn't changed since.
+     *
+     * @param archivePath the archive file
+     * @return the open archive
+     * @throws IOException if the file doesn't exist, or isn't a valid archive
+     */
+    Archive open(final Path archivePath) throws IOException {
+        final Path                key   = archivePath.toAbsolutePath().normalize();
+        final BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        final String              stamp = attrs.lastModifiedTime().toMillis() + "-" + attrs.size();
+        try {
+            return archives.compute(key, (k, existing) -> {
+                if (existing != null && existing.stamp.equals(stamp)) {
+                    return existing;
+                }
+                if (existing != null) {
+                    // another execution may still be reading it, so it's only closed at the end of the session
+                    synchronized (superseded) {
+                        superseded.add(existing.fileSystem);
+                    }
+                }
+                try {
+                    return new Archive(k, stamp, FileSystems.newFileSystem(k, (ClassLoader) null));
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Lists the files under a directory in an archive.
+     *
+     * @param directory the directory's path in the archive's FileSystem
+     * @return the paths of the files (not directories) relative to the directory, with '/' separators, sorted
+     * @throws IOException if the directory doesn't exist, or can't be read
+     */
+    static List<String> listFiles(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<FileSystem> fileSystems = new ArrayList<>();
+        archives.values().forEach(a -> fileSystems.add(a.fileSystem));
+        archives.clear();
+        synchronized (superseded) {
+            fileSystems.addAll(superseded);
+            superseded.clear();
+        }
+        IOException failure = null;
+        for (FileSystem fs : fileSystems) {
+            try {
+                fs.close();
+            } catch (final IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * An archive opened as a FileSystem.
+     */
+    static final class Archive {
+        private final Path       archivePath;
+        private final String     stamp;
+        private final FileSystem fileSystem;
+
+        private Archive(final Path archivePath, final String stamp, final FileSystem fileSystem) {
+            this.archivePath = archivePath;
+            this.stamp = stamp;
+            this.fileSystem = fileSystem;
+        }
+
+        /**
+         * @param directory a directory within the archive, relative to its root; empty for the root itself
+         * @return the directory's path in the archive's FileSystem
+         */
+        Path getDirectory(final String directory) {
+            return fileSystem.getPath("/" + directory);
+        }
+
+        /**
+         * @return a key identifying this archive, and the version of it which is open: it changes if the archive file changes
+         */
+        String getKey() {
+            return archivePath + "@" + stamp;
+        }
+    }
+
+    /**
+     * The location of a directory within an archive, as written in the plugin's configuration.
+     */
+    static final class Location {
+        private final Path   archivePath;
+        private final String directory;
+
+        private Location(final Path archivePath, final String directory) {
+            this.archivePath = archivePath;
+            this.directory = directory.endsWith("/") ? directory.substring(0, directory.length() - 1) : directory;
+        }
+
+        /**
+         * Determines whether a configured directory is actually in an archive.
+         *
+         * @param location the configured location
+         * @param baseDir  the directory which a relative archive path is relative to, ie the project's basedir
+         * @return the archive and directory, or null if the location isn't an archive
+         */
+        static Location parse(final String location, final Path baseDir) {
+            if (location.regionMatches(true, 0, "jar:", 0, 4)) {
+                final String ssp   = URI.create(location).getSchemeSpecificPart();
+                final int    index = ssp.indexOf(ENTRY_SEPARATOR);
+                final Path   path  = Paths.get(URI.create(index == -1 ? ssp : ssp.substring(0, index)));
+                return new Location(path, index == -1 ? "" : ssp.substring(index + ENTRY_SEPARATOR.length()));
+            }
+            final int    index       = location.indexOf(ENTRY_SEPARATOR);
+            final String archivePart = index == -1 ? location : location.substring(0, index);
+            final String lowerCase   = archivePart.toLowerCase(Locale.ROOT);
+            if (!lowerCase.endsWith(".zip") && !lowerCase.endsWith(".jar")) {
+                return null;
+            }
+            final Path path = baseDir.resolve(archivePart);
+            // a directory can have an archive-like name too
+            if (index == -1 && !Files.isRegularFile(path)) {
+                return null;
+            }
+            return new Location(path, index == -1 ? "" : location.substring(index + ENTRY_SEPARATOR.length()));
+        }
+
+        Path getArchivePath() {
+            return archivePath;
+        }
+
+        /**
+         * @return the directory within the archive, relative to its root, with no trailing '/'; empty for the root itself
+         */
+        String getDirectory() {
+            return directory;
+        }
+
+        @Override
+        public String toString() {
+            return archivePath + (directory.isEmpty() ? "" : ENTRY_SEPARATOR + directory);
+        }
+    }
+}
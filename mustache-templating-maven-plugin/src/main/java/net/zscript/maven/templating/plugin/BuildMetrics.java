@@ -0,0 +1,224 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.zscript.maven.templating.contextloader.TimingListener;
+
+/**
+ * Collects timings for the phases of a single execution: the elapsed time, the number of items processed, bytes produced and bytes allocated. The load, render and write phases
+ * run concurrently on several threads, so their times are the sum of the time spent by each thread, and may exceed the overall wall time.
+ * <p>
+ * It is also the {@link TimingListener} offered to the context loader, whose own timings are collected separately, by name. This class is thread-safe.
+ */
+final class BuildMetrics implements TimingListener {
+    /**
+     * The plugin's own phases, in the order they're reported.
+     */
+    enum Phase {
+        RESOLVE, COMPILE, SCAN, FINGERPRINT, LOAD, RENDER, WRITE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = allocationTrackingBean();
+
+    private final long                     startNanos   = System.nanoTime();
+    private final Map<Phase, Stats>        phases       = new EnumMap<>(Phase.class);
+    private final SortedMap<String, Stats> loaderPhases = new ConcurrentSkipListMap<>();
+
+    BuildMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Stats());
+        }
+    }
+
+    /**
+     * Starts timing some work on the current thread.
+     *
+     * @return the starting point, to pass to {@link #stop}
+     */
+    Sample start() {
+        return new Sample(System.nanoTime(), currentThreadAllocatedBytes());
+    }
+
+    /**
+     * Records work started by {@link #start()}, on the same thread.
+     *
+     * @param phase the phase the work belongs to
+     * @param start the starting point
+     * @param items the number of items processed
+     * @param bytes the number of bytes produced
+     */
+    void stop(final Phase phase, final Sample start, final long items, final long bytes) {
+        final long allocated = start.allocatedBytes < 0 ? 0 : currentThreadAllocatedBytes() - start.allocatedBytes;
+        phases.get(phase).add(System.nanoTime() - start.nanos, items, bytes, allocated);
+    }
+
+    /**
+     * Performs an action, recording it as a single item of the given phase.
+     *
+     * @param phase  the phase
+     * @param action the action to perform
+     * @return the action's result
+     * @throws E if the action fails
+     */
+    <T, E extends Exception> T time(final Phase phase, final Action<T, E> action) throws E {
+        final Sample start = start();
+        try {
+            return action.perform();
+        } finally {
+            stop(phase, start, 1, 0);
+        }
+    }
+
+    @Override
+    public void record(final String phase, final long elapsedNanos, final long itemCount) {
+        loaderPhases.computeIfAbsent(phase, p -> new Stats()).add(elapsedNanos, itemCount, 0, 0);
+    }
+
+    /**
+     * @return the wall time since this object was created, in nanoseconds
+     */
+    long getWallNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return a concise, single-line summary of the phases which did any work
+     */
+    String summary() {
+        final StringBuilder sb = new StringBuilder("Timings: ");
+        phases.forEach((phase, stats) -> {
+            if (stats.items.sum() > 0) {
+                sb.append(phase.label()).append(' ').append(millis(stats.nanos.sum())).append("ms");
+                if (phase.compareTo(Phase.LOAD) >= 0) {
+                    sb.append(" (").append(stats.items.sum()).append(stats.bytes.sum() > 0 ? ", " + kilobytes(stats.bytes.sum()) + "KB" : "").append(')');
+                }
+                sb.append(", ");
+            }
+        });
+        loaderPhases.forEach((phase, stats) -> sb.append(phase).append(' ').append(millis(stats.nanos.sum())).append("ms (").append(stats.items.sum()).append("), "));
+        return sb.append("total ").append(millis(getWallNanos())).append("ms").toString();
+    }
+
+    /**
+     * Creates a JSON report of all the timings.
+     *
+     * @param header properties describing the execution, included at the start of the report; values may be Strings or Numbers
+     * @return the report
+     */
+    String toJson(final Map<String, Object> header) {
+        final StringBuilder sb = new StringBuilder("{\n");
+        header.forEach((key, value) -> sb.append("  ").append(quote(key)).append(": ").append(value instanceof Number ? value : quote(String.valueOf(value))).append(",\n"));
+        sb.append("  \"wallNanos\": ").append(getWallNanos()).append(",\n");
+        sb.append("  \"phases\": {");
+        String sep = "\n";
+        for (Map.Entry<Phase, Stats> e : phases.entrySet()) {
+            sb.append(sep).append("    ").append(quote(e.getKey().label())).append(": ").append(e.getValue().toJson());
+            sep = ",\n";
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"loaderPhases\": {");
+        sep = "\n";
+        for (Map.Entry<String, Stats> e : loaderPhases.entrySet()) {
+            sb.append(sep).append("    ").append(quote(e.getKey())).append(": ").append(e.getValue().toJson());
+            sep = ",\n";
+        }
+        return sb.append(loaderPhases.isEmpty() ? "}\n" : "\n  }\n").append("}\n").toString();
+    }
+
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long kilobytes(final long bytes) {
+        return (bytes + 1023) / 1024;
+    }
+
+    private static String quote(final String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Allocation tracking is a HotSpot extension, so may be unavailable (in which case allocated bytes are reported as zero).
+     */
+    private static com.sun.management.ThreadMXBean allocationTrackingBean() {
+        try {
+            final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (final LinkageError | RuntimeException e) {
+            // fall through
+        }
+        return null;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN == null ? -1 : THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Some work performed by the {@link #time} method.
+     */
+    @FunctionalInterface
+    interface Action<T, E extends Exception> {
+        T perform() throws E;
+    }
+
+    /**
+     * The starting point of some work being timed.
+     */
+    static final class Sample {
+        private final long nanos;
+        private final long allocatedBytes;
+
+        private Sample(final long nanos, final long allocatedBytes) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static final class Stats {
+        final LongAdder nanos          = new LongAdder();
+        final LongAdder items          = new LongAdder();
+        final LongAdder bytes          = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+
+        void add(final long elapsedNanos, final long itemCount, final long byteCount, final long allocated) {
+            nanos.add(elapsedNanos);
+            items.add(itemCount);
+            bytes.add(byteCount);
+            allocatedBytes.add(allocated);
+        }
+
+        String toJson() {
+            return "{\"nanos\": " + nanos.sum() + ", \"items\": " + items.sum() + ", \"bytes\": " + bytes.sum() + ", \"allocatedBytes\": " + allocatedBytes.sum() + "}";
+        }
+    }
+}
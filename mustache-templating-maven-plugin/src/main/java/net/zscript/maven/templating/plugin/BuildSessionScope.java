@@ -0,0 +1,218 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.function.Supplier;
+
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * Holds objects which live for the duration of a Maven build session, so they can be shared by every execution of the plugin in that session - including executions in other
+ * reactor modules.
+ * <p>
+ * Objects are stored in the repository session's data, keyed by their class. As the key is the Class object itself, plugin realms with different classloaders (eg because they
+ * declare different plugin dependencies) never see each other's objects.
+ * <p>
+ * Objects holding resources can be closed when the session ends, using {@link #closeAtSessionEnd}.
+ */
+final class BuildSessionScope {
+    private BuildSessionScope() {
+    }
+
+    /**
+     * @param session the current Maven session, or null if there isn't one
+     * @return true if objects can be shared through the session, and closed when it ends
+     */
+    static boolean isAvailable(final MavenSession session) {
+        return session != null && session.getRepositorySession() != null && session.getRequest() != null;
+    }
+
+    /**
+     * Returns the session's instance of the requested type, creating it if it doesn't exist yet.
+     *
+     * @param session the current Maven session, or null if there isn't one (in which case a new unshared instance is always created)
+     * @param type    the type of the object, used as the key
+     * @param factory creates the object if the session doesn't have one yet
+     * @param <T>     the type of the object
+     * @return the session-scoped object, never null
+     */
+    static <T> T get(final MavenSession session, final Class<T> type, final Supplier<T> factory) {
+        if (!isAvailable(session)) {
+            return factory.get();
+        }
+        final SessionData data = session.getRepositorySession().getData();
+
+        Object existing = data.get(type);
+        while (existing == null) {
+            final T created = factory.get();
+            if (data.set(type, null, created)) {
+                return created;
+            }
+            existing = data.get(type);
+        }
+        return type.cast(existing);
+    }
+
+    /**
+     * Arranges for a resource to be closed when the session ends, by chaining a listener onto the session's {@link ExecutionListener}, which Maven notifies after the last
+     * project has been built (whether or not the build succeeded).
+     *
+     * @param session  the current Maven session, or null if there isn't one
+     * @param resource the resource to close; any exception it throws is ignored, so it should report its own problems
+     * @return true if the resource will be closed, or false if the session isn't {@link #isAvailable available} (so the caller must close it)
+     */
+    static boolean closeAtSessionEnd(final MavenSession session, final AutoCloseable resource) {
+        if (!isAvailable(session)) {
+            return false;
+        }
+        final MavenExecutionRequest request = session.getRequest();
+        synchronized (request) {
+            request.setExecutionListener(new SessionEndListener(request.getExecutionListener(), resource));
+        }
+        return true;
+    }
+
+    /**
+     * Passes every event on to the original listener, and closes the resource when the session ends.
+     */
+    private static final class SessionEndListener implements ExecutionListener {
+        private final ExecutionListener delegate;
+        private final AutoCloseable     resource;
+
+        SessionEndListener(final ExecutionListener delegate, final AutoCloseable resource) {
+            this.delegate = delegate;
+            this.resource = resource;
+        }
+
+        @Override
+        public void sessionEnded(final ExecutionEvent event) {
+            try {
+                resource.close();
+            } catch (final Exception e) {
+                // nowhere left to report it
+            }
+            if (delegate != null) {
+                delegate.sessionEnded(event);
+            }
+        }
+
+        @Override
+        public void projectDiscoveryStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectDiscoveryStarted(event);
+            }
+        }
+
+        @Override
+        public void sessionStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.sessionStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSkipped(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSkipped(event);
+            }
+        }
+
+        @Override
+        public void projectStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void projectFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectFailed(event);
+            }
+        }
+
+        @Override
+        public void mojoSkipped(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSkipped(event);
+            }
+        }
+
+        @Override
+        public void mojoStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoStarted(event);
+            }
+        }
+
+        @Override
+        public void mojoSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSucceeded(event);
+            }
+        }
+
+        @Override
+        public void mojoFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoFailed(event);
+            }
+        }
+
+        @Override
+        public void forkStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkStarted(event);
+            }
+        }
+
+        @Override
+        public void forkSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkFailed(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectStarted(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectFailed(event);
+            }
+        }
+    }
+}
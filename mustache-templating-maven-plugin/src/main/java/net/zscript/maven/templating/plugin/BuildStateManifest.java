@@ -0,0 +1,210 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Records the state of the previous run of an execution: for each context source path, the fingerprint of all the inputs which went into generating its outputs, and the
+ * relative paths of the outputs themselves. This allows later runs to skip any source whose fingerprint hasn't changed, and to delete any outputs which are no longer generated.
+ * It also records the digest of each fragment file which the sources included (see {@link net.zscript.maven.templating.contextloader.FragmentCache}): any source might include
+ * any of them, so if one changes, every source is regenerated.
+ * <p>
+ * The file format is deliberately simple: a header comment, the output directory the outputs are relative to, then one line per source, with tab-separated fields: fingerprint,
+ * source path, then zero or more output paths. Each included fragment has a line of its own, with the fields: '!include', digest, fragment path.
+ */
+final class BuildStateManifest {
+    private static final String HEADER = "# mustache-templating build state, version 3";
+
+    /** Used as the fingerprint where none was calculated, so the entry can never be considered up-to-date. */
+    static final String NO_FINGERPRINT = "-";
+
+    private static final String INCLUDE_MARKER = "!include";
+
+    private final SortedMap<String, Entry>  entries  = new TreeMap<>();
+    private final SortedMap<String, String> includes = new TreeMap<>();
+    private final String                    outputDirectory;
+
+    /**
+     * @param outputDirectory the absolute path of the directory that the outputs are relative to, or null if unknown
+     */
+    BuildStateManifest(final String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Reads a manifest from a previous run. If the file doesn't exist, or was written by an incompatible version, then an empty manifest is returned, which simply means that
+     * everything is regenerated.
+     *
+     * @param file the manifest file
+     * @return the manifest, never null
+     * @throws IOException if the file exists but can't be read
+     */
+    static BuildStateManifest read(final Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            final String outputDirectory;
+            if (!HEADER.equals(reader.readLine()) || (outputDirectory = reader.readLine()) == null) {
+                return new BuildStateManifest(null);
+            }
+            final BuildStateManifest manifest = new BuildStateManifest(outputDirectory);
+            for (String line; (line = reader.readLine()) != null; ) {
+                final String[] fields = line.split("\t");
+                if (fields.length == 3 && fields[0].equals(INCLUDE_MARKER)) {
+                    manifest.putInclude(fields[2], fields[1]);
+                } else if (fields.length >= 2) {
+                    manifest.put(fields[1], fields[0], Arrays.asList(fields).subList(2, fields.length));
+                }
+            }
+            return manifest;
+        } catch (NoSuchFileException e) {
+            // no previous state, so nothing is up-to-date
+            return new BuildStateManifest(null);
+        }
+    }
+
+    /**
+     * Writes the manifest, replacing any previous one atomically so that an interrupted build can't leave a half-written manifest.
+     *
+     * @param file the manifest file
+     * @throws IOException if the file can't be written
+     */
+    void write(final Path file) throws IOException {
+        final StringBuilder sb = new StringBuilder(HEADER).append('\n').append(outputDirectory).append('\n');
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            sb.append(e.getValue().getFingerprint()).append('\t').append(e.getKey());
+            for (String output : e.getValue().getOutputs()) {
+                sb.append('\t').append(output);
+            }
+            sb.append('\n');
+        }
+        includes.forEach((path, digest) -> sb.append(INCLUDE_MARKER).append('\t').append(digest).append('\t').append(path).append('\n'));
+        Files.createDirectories(file.getParent());
+        OutputFileWriter.writeAtomically(file, sb.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * @return the absolute path of the directory that the outputs are relative to, or null if unknown (eg there was no previous state)
+     */
+    String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * @return the paths of all the outputs of all the sources, relative to the output directory
+     */
+    Set<String> getAllOutputs() {
+        final Set<String> outputs = new TreeSet<>();
+        entries.values().forEach(entry -> outputs.addAll(entry.getOutputs()));
+        return outputs;
+    }
+
+    /**
+     * Determines which of this manifest's outputs are no longer generated, according to a later one. If the two manifests have different output directories (or this one's is
+     * unknown), then none of the later one's outputs can be orphans of this one.
+     *
+     * @param newState the manifest of a later run
+     * @return the paths of the outputs which are in this manifest but not the later one, relative to the output directory
+     */
+    Set<String> getOrphanedOutputs(final BuildStateManifest newState) {
+        if (outputDirectory == null || newState.outputDirectory == null
+                || !Paths.get(outputDirectory).normalize().equals(Paths.get(newState.outputDirectory).normalize())) {
+            return Collections.emptySet();
+        }
+        final Set<String> orphans = getAllOutputs();
+        orphans.removeAll(newState.getAllOutputs());
+        return orphans;
+    }
+
+    /**
+     * @param sourcePath the context source path, relative to the context root
+     * @return the entry for the source, or null if there isn't one
+     */
+    Entry get(final String sourcePath) {
+        return entries.get(sourcePath);
+    }
+
+    void put(final String sourcePath, final Entry entry) {
+        entries.put(sourcePath, entry);
+    }
+
+    void put(final String sourcePath, final String fingerprint, final List<String> outputs) {
+        put(sourcePath, new Entry(fingerprint, outputs));
+    }
+
+    /**
+     * @return the digests of the fragments included by the sources, keyed by their paths relative to the context root
+     */
+    SortedMap<String, String> getIncludes() {
+        return Collections.unmodifiableSortedMap(includes);
+    }
+
+    /**
+     * @param fragmentPath the path of a fragment included by any of the sources, relative to the context root
+     * @param digest       the digest of the fragment's content, or {@link #NO_FINGERPRINT} if it couldn't be read
+     */
+    void putInclude(final String fragmentPath, final String digest) {
+        includes.put(fragmentPath, digest);
+    }
+
+    /**
+     * The recorded state of a single context source.
+     */
+    static final class Entry {
+        private final String       fingerprint;
+        private final List<String> outputs;
+
+        Entry(final String fingerprint, final List<String> outputs) {
+            this.fingerprint = fingerprint;
+            this.outputs = Collections.unmodifiableList(new ArrayList<>(outputs));
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the paths of the outputs generated from the source, relative to the output directory
+         */
+        List<String> getOutputs() {
+            return outputs;
+        }
+
+        /**
+         * Determines whether this entry still describes the current state, ie the fingerprint matches and all the outputs still exist.
+         *
+         * @param currentFingerprint  the fingerprint of the source's current inputs
+         * @param outputDirectoryPath the directory the outputs are relative to
+         * @return true if the source doesn't need regenerating
+         */
+        boolean isUpToDate(final String currentFingerprint, final Path outputDirectoryPath) {
+            if (NO_FINGERPRINT.equals(fingerprint) || !fingerprint.equals(currentFingerprint)) {
+                return false;
+            }
+            for (String output : outputs) {
+                if (!Files.isRegularFile(outputDirectoryPath.resolve(output))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
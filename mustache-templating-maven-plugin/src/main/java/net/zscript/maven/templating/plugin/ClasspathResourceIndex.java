@@ -0,0 +1,132 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * An index of the resources visible to a classloader, so that wildcard include/exclude patterns can be matched against a 'classpath:' directory - which, unlike a local
+ * directory, can't simply be listed. The resources under each root are found by scanning the jars and directories behind it, once; after that, matching any number of patterns
+ * against the root costs no further I/O. Each jar is only scanned once, however many roots are in it.
+ * <p>
+ * Obtain the session's instance using {@link BuildSessionScope#get}. As that's keyed by class, and so by plugin classloader, each plugin realm has its own index. This class is
+ * thread-safe.
+ */
+final class ClasspathResourceIndex {
+    private final ClassLoader                         classLoader;
+    private final ConcurrentMap<String, List<String>> resourcesByRoot = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<String>> entriesByJar    = new ConcurrentHashMap<>();
+
+    ClasspathResourceIndex(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Lists the resources matching a fileset's patterns under a classpath root, with the same semantics as a local directory's fileset: a path is selected if it matches any
+     * include (or there are none) and no exclude, patterns ending in '/' match everything beneath, and the default excludes (eg SCM files) apply if requested.
+     *
+     * @param root               the resource directory, eg "contexts/" (with no leading '/')
+     * @param includes           the include patterns
+     * @param excludes           the exclude patterns
+     * @param useDefaultExcludes whether to add the standard default excludes
+     * @return the matching paths relative to the root, sorted
+     */
+    List<String> match(final String root, final List<String> includes, final List<String> excludes, final boolean useDefaultExcludes) {
+        return FileSetPatterns.select(list(root), includes, excludes, useDefaultExcludes);
+    }
+
+    /**
+     * Lists all the resources under a classpath root, scanning for them on first use.
+     *
+     * @param root the resource directory, eg "contexts/" (with no leading '/')
+     * @return the paths of the resources (not directories) relative to the root, sorted
+     */
+    List<String> list(final String root) {
+        final String prefix = root.isEmpty() || root.endsWith("/") ? root : root + "/";
+        return resourcesByRoot.computeIfAbsent(prefix, this::scan);
+    }
+
+    private List<String> scan(final String prefix) {
+        final TreeSet<String> found = new TreeSet<>();
+        try {
+            // jars often lack directory entries, so getResources(prefix) can't find them: check every jar on the classpath too
+            if (classLoader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                    if ("file".equals(url.getProtocol()) && url.getPath().endsWith(".jar")) {
+                        addJarEntries(Paths.get(url.toURI()).toFile(), prefix, found);
+                    }
+                }
+            }
+            final Enumeration<URL> roots = classLoader.getResources(prefix);
+            while (roots.hasMoreElements()) {
+                final URL url = roots.nextElement();
+                if ("jar".equals(url.getProtocol())) {
+                    final JarURLConnection conn = (JarURLConnection) url.openConnection();
+                    conn.setUseCaches(false);
+                    final URL jarFileUrl = conn.getJarFileURL();
+                    if ("file".equals(jarFileUrl.getProtocol())) {
+                        addJarEntries(Paths.get(jarFileUrl.toURI()).toFile(), prefix, found);
+                    }
+                } else if ("file".equals(url.getProtocol())) {
+                    addDirectoryEntries(Paths.get(url.toURI()), found);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to scan classpath for: " + prefix, e);
+        } catch (final URISyntaxException e) {
+            throw new IllegalStateException("Bad classpath URL whilst scanning for: " + prefix, e);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(found));
+    }
+
+    private void addJarEntries(final File jar, final String prefix, final TreeSet<String> found) {
+        for (String name : entriesByJar.computeIfAbsent(jar.getAbsolutePath(), k -> readJarEntries(jar))) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                found.add(name.substring(prefix.length()));
+            }
+        }
+    }
+
+    private static List<String> readJarEntries(final File jar) {
+        try (JarFile jarFile = new JarFile(jar)) {
+            final List<String> names = new ArrayList<>();
+            for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    names.add(entry.getName());
+                }
+            }
+            return names;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to scan jar: " + jar, e);
+        }
+    }
+
+    private static void addDirectoryEntries(final Path dir, final TreeSet<String> found) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.filter(Files::isRegularFile).forEach(file -> found.add(dir.relativize(file).toString().replace(File.separatorChar, '/')));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheResolver;
+
+/**
+ * A compiled Mustache template, along with the digests of every resource (the main template and any partials) which was resolved in order to compile it. The digests allow the
+ * compiled form to be reused for as long as none of those resources has changed.
+ */
+final class CompiledTemplate {
+    private static final String MISSING_RESOURCE_DIGEST = "-";
+
+    private final TemplateRoot                  root;
+    private final String                        name;
+    private final ObjectHandlerType             objectHandlerType;
+    private final Mustache                      mustache;
+    private final ConcurrentMap<String, String> resourceDigests;
+
+    private CompiledTemplate(final TemplateRoot root, final String name, final ObjectHandlerType objectHandlerType, final Mustache mustache,
+            final ConcurrentMap<String, String> resourceDigests) {
+        this.root = root;
+        this.name = name;
+        this.objectHandlerType = objectHandlerType;
+        this.mustache = mustache;
+        this.resourceDigests = resourceDigests;
+    }
+
+    /**
+     * Compiles the named template (and any partials it references) from the supplied root, recording the digests of everything resolved along the way.
+     *
+     * @param root              the root to resolve templates from
+     * @param name              the name of the main template, relative to the root
+     * @param objectHandlerType how the template resolves variables against contexts
+     * @return the compiled template
+     */
+    static CompiledTemplate compile(final TemplateRoot root, final String name, final ObjectHandlerType objectHandlerType) {
+        final ConcurrentMap<String, String> resourceDigests = new ConcurrentHashMap<>();
+        final DefaultMustacheFactory        mustacheFactory = new DefaultMustacheFactory(new DigestingResolver(root.getResolver(), resourceDigests));
+        mustacheFactory.setObjectHandler(objectHandlerType.createObjectHandler());
+        return new CompiledTemplate(root, name, objectHandlerType, mustacheFactory.compile(name), resourceDigests);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Mustache getMustache() {
+        return mustache;
+    }
+
+    /**
+     * @return the digests of every resource resolved so far by this template, keyed by resource name
+     */
+    SortedMap<String, String> getResourceDigests() {
+        return new TreeMap<>(resourceDigests);
+    }
+
+    /**
+     * @return a single digest covering the names and contents of every resource resolved so far by this template
+     */
+    String getDigest() {
+        final StringBuilder sb = new StringBuilder();
+        getResourceDigests().forEach((resourceName, digest) -> sb.append(resourceName).append('=').append(digest).append('\n'));
+        return Digests.digest(sb.toString());
+    }
+
+    /**
+     * Re-reads each resource used by this template, to determine whether any of them has changed since it was compiled.
+     *
+     * @return true if every resource still has the same content, false otherwise
+     */
+    boolean isUpToDate() {
+        for (Map.Entry<String, String> e : resourceDigests.entrySet()) {
+            if (!e.getValue().equals(readDigest(root.getResolver(), e.getKey(), null))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readDigest(final MustacheResolver resolver, final String resourceName, final StringBuilder contentOut) {
+        try (Reader reader = resolver.getReader(resourceName)) {
+            if (reader == null) {
+                return MISSING_RESOURCE_DIGEST;
+            }
+            final StringBuilder content = contentOut != null ? contentOut : new StringBuilder();
+            final char[]        buf     = new char[4096];
+            for (int n; (n = reader.read(buf)) != -1; ) {
+                content.append(buf, 0, n);
+            }
+            return Digests.digest(content.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read template: " + resourceName, e);
+        }
+    }
+
+    /**
+     * Wraps the real resolver, reading each resource fully so that its digest can be recorded before it's handed to Mustache.
+     */
+    private static class DigestingResolver implements MustacheResolver {
+        private final MustacheResolver              delegate;
+        private final ConcurrentMap<String, String> resourceDigests;
+
+        DigestingResolver(final MustacheResolver delegate, final ConcurrentMap<String, String> resourceDigests) {
+            this.delegate = delegate;
+            this.resourceDigests = resourceDigests;
+        }
+
+        @Override
+        public Reader getReader(final String resourceName) {
+            final StringBuilder content = new StringBuilder();
+            final String        digest  = readDigest(delegate, resourceName, content);
+            resourceDigests.put(resourceName, digest);
+            return MISSING_RESOURCE_DIGEST.equals(digest) ? null : new StringReader(content.toString());
+        }
+    }
+}
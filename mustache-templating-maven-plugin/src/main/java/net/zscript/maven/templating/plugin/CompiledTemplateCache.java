@@ -0,0 +1,49 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Build-session-wide cache of compiled templates, so that templates (and their partials) shared by many executions and reactor modules are only parsed once per build. Entries
+ * are keyed by template root, template name and object handler type, and are recompiled if the content digest of the template or any of its partials has changed since it was compiled.
+ * <p>
+ * Checking and compiling happen outside the map, as both read the template's resources (perhaps remotely): a template is only locked while it's being compiled.
+ * <p>
+ * Obtain the session's instance using {@link BuildSessionScope#get}.
+ */
+final class CompiledTemplateCache {
+    private final ConcurrentMap<String, CompiledTemplate> templates = new ConcurrentHashMap<>();
+    /** Held while a template is compiled, so it's only compiled by one thread, without blocking any other template. */
+    private final ConcurrentMap<String, Object>           locks     = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compiled form of the named template, compiling it if it isn't cached or if any of its resources has changed.
+     *
+     * @param root              the root to resolve templates from
+     * @param templateName      the name of the main template, relative to the root
+     * @param objectHandlerType how the template resolves variables against contexts
+     * @return an up-to-date compiled template
+     */
+    CompiledTemplate get(final TemplateRoot root, final String templateName, final ObjectHandlerType objectHandlerType) {
+        final String           key    = root.getKey() + '|' + templateName + '|' + objectHandlerType;
+        final CompiledTemplate cached = templates.get(key);
+        if (cached != null && cached.isUpToDate()) {
+            return cached;
+        }
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            // another thread may have compiled it while this one waited
+            final CompiledTemplate current = templates.get(key);
+            if (current != null && current != cached && current.isUpToDate()) {
+                return current;
+            }
+            final CompiledTemplate compiled = CompiledTemplate.compile(root, templateName, objectHandlerType);
+            templates.put(key, compiled);
+            return compiled;
+        }
+    }
+}
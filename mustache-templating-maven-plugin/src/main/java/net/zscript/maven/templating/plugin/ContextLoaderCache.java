@@ -0,0 +1,185 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import net.zscript.maven.templating.contextloader.TemplatingPluginContextLoader;
+
+/**
+ * Build-session-wide cache of initialised context loaders, so that a {@link TemplatingPluginContextLoader#isReusable() reusable} loader, and whatever it builds in
+ * {@link TemplatingPluginContextLoader#init(Map) init}, serves every execution and reactor module which uses the same loader class and properties. Executions take loaders
+ * through a {@link Lease}, and hand them back when they finish: reusable loaders are then kept idle for the next execution (a thread-safe one is simply shared), and any others
+ * are closed. The idle loaders are closed when the cache is, at the end of the session.
+ * <p>
+ * Obtain the session's instance using {@link BuildSessionScope#get}. This class is thread-safe.
+ */
+final class ContextLoaderCache implements AutoCloseable {
+    private final Log                         log;
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    ContextLoaderCache(final Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Starts a lease of loaders of the given class and properties, for the duration of one execution.
+     *
+     * @param className  the loader's fully-qualified class name
+     * @param properties the properties to initialise each loader with
+     * @return the lease, which must be closed when the execution has finished with its loaders
+     */
+    Lease lease(final String className, final Map<String, String> properties) {
+        final Map<String, String> sortedProperties = Collections.unmodifiableMap(new TreeMap<>(properties));
+        final Pool                pool             = pools.computeIfAbsent(className + sortedProperties, k -> new Pool(className, sortedProperties));
+        return new Lease(pool);
+    }
+
+    /**
+     * Closes all the idle loaders. Loaders still leased at that point are closed when they're handed back.
+     */
+    @Override
+    public void close() {
+        pools.values().forEach(Pool::close);
+    }
+
+    private void closeLoader(final TemplatingPluginContextLoader loader) {
+        try {
+            loader.close();
+        } catch (final Exception e) {
+            log.warn("Failed to close context loader " + loader.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * The loaders of one class and set of properties.
+     */
+    private final class Pool {
+        private final String              className;
+        private final Map<String, String> properties;
+
+        // guarded by 'this'
+        private final Deque<TemplatingPluginContextLoader> idle   = new ArrayDeque<>();
+        private       TemplatingPluginContextLoader        shared;
+        private       boolean                              closed;
+
+        Pool(final String className, final Map<String, String> properties) {
+            this.className = className;
+            this.properties = properties;
+        }
+
+        TemplatingPluginContextLoader take() throws MojoExecutionException {
+            synchronized (this) {
+                if (shared != null) {
+                    return shared;
+                }
+                if (!idle.isEmpty()) {
+                    return idle.pop();
+                }
+            }
+            final TemplatingPluginContextLoader created = create();
+            if (created.isThreadSafe() && created.isReusable()) {
+                synchronized (this) {
+                    if (shared == null && !closed) {
+                        shared = created;
+                    }
+                }
+            }
+            return created;
+        }
+
+        void giveBack(final TemplatingPluginContextLoader loader) {
+            synchronized (this) {
+                if (loader == shared) {
+                    return;
+                }
+                if (loader.isReusable() && !closed) {
+                    idle.push(loader);
+                    return;
+                }
+            }
+            closeLoader(loader);
+        }
+
+        void close() {
+            final List<TemplatingPluginContextLoader> toClose = new ArrayList<>();
+            synchronized (this) {
+                closed = true;
+                toClose.addAll(idle);
+                idle.clear();
+                if (shared != null) {
+                    toClose.add(shared);
+                    shared = null;
+                }
+            }
+            toClose.forEach(ContextLoaderCache.this::closeLoader);
+        }
+
+        private TemplatingPluginContextLoader create() throws MojoExecutionException {
+            final TemplatingPluginContextLoader loader;
+            try {
+                loader = (TemplatingPluginContextLoader) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (final Exception e) {
+                throw new MojoExecutionException("Cannot load class '" + className + "'", e);
+            }
+            try {
+                loader.init(properties);
+            } catch (final RuntimeException e) {
+                closeLoader(loader);
+                throw new MojoExecutionException("Failed to initialise context loader '" + className + "': " + e.getMessage(), e);
+            }
+            log.debug("Initialised context loader " + className + (properties.isEmpty() ? "" : " with " + properties));
+            return loader;
+        }
+    }
+
+    /**
+     * The loaders taken by one execution, which are handed back when it's closed.
+     */
+    final class Lease implements AutoCloseable {
+        private final Pool                                pool;
+        private final List<TemplatingPluginContextLoader> taken = new ArrayList<>();
+
+        private Lease(final Pool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Takes a loader, either an idle one or a newly initialised one. A thread-safe reusable loader is shared, so may be returned by every call (and to other executions).
+         *
+         * @return an initialised loader
+         * @throws MojoExecutionException if the loader can't be created or initialised
+         */
+        TemplatingPluginContextLoader take() throws MojoExecutionException {
+            final TemplatingPluginContextLoader loader = pool.take();
+            synchronized (taken) {
+                if (taken.stream().noneMatch(t -> t == loader)) {
+                    taken.add(loader);
+                }
+            }
+            return loader;
+        }
+
+        @Override
+        public void close() {
+            synchronized (taken) {
+                taken.forEach(pool::giveBack);
+                taken.clear();
+            }
+        }
+    }
+}
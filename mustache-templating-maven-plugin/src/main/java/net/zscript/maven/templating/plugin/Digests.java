@@ -0,0 +1,89 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Utility methods for creating content digests, as used to detect whether templates and contexts have changed.
+ */
+final class Digests {
+    private static final String ALGORITHM  = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String digest(final byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    static String digest(final String content) {
+        return digest(content.getBytes(UTF_8));
+    }
+
+    /**
+     * Digests the content at a URL, streaming it rather than reading it all into memory.
+     *
+     * @param url the location of the content
+     * @return the hex digest
+     * @throws IOException if the content can't be read
+     */
+    static String digest(final URL url) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream in = url.openStream()) {
+            final byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) != -1; ) {
+                digest.update(buf, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digests the content of a file, streaming it rather than reading it all into memory.
+     *
+     * @param file the file, on any FileSystem (eg in an archive)
+     * @return the hex digest
+     * @throws IOException if the content can't be read
+     */
+    static String digest(final Path file) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) != -1; ) {
+                digest.update(buf, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches directory trees for changes, using a {@link WatchService}. As WatchService only watches single directories, each directory in a tree is registered separately, including
+ * any created later. Changes are debounced: saving a file often generates several events (and editors may save several files at once), so {@link #awaitChanges} only returns once
+ * things have been quiet for a while.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class DirectoryWatcher implements AutoCloseable {
+    private final WatchService        watchService;
+    private final Predicate<Path>     ignored;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * @param fileSystemPath any path on the file system to be watched (WatchServices are per file system)
+     * @param ignored        identifies files and directories whose changes are of no interest, eg build outputs
+     * @throws IOException if the WatchService can't be created
+     */
+    DirectoryWatcher(final Path fileSystemPath, final Predicate<Path> ignored) throws IOException {
+        this.watchService = fileSystemPath.getFileSystem().newWatchService();
+        this.ignored = ignored;
+    }
+
+    /**
+     * Watches the directory, and all the directories beneath it (other than ignored ones).
+     *
+     * @param root the root of the tree to watch
+     * @throws IOException if the tree can't be read, or registered with the WatchService
+     */
+    void registerTree(final Path root) throws IOException {
+        final Set<Path> dirs;
+        try (Stream<Path> paths = Files.walk(root)) {
+            dirs = paths.filter(Files::isDirectory).filter(p -> !ignored.test(p)).collect(Collectors.toSet());
+        }
+        for (Path dir : dirs) {
+            directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+        }
+    }
+
+    /**
+     * Blocks until something changes, and then until nothing more has changed for the quiet period.
+     *
+     * @param quietMillis how long things must be quiet for, in milliseconds
+     * @return the paths which changed (for an overflow, where the details were lost, the directory concerned)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Set<Path> awaitChanges(final long quietMillis) throws InterruptedException {
+        final Set<Path> changed = new TreeSet<>();
+        WatchKey        key     = watchService.take();
+        while (true) {
+            collectChanges(key, changed);
+            key = watchService.poll(Math.max(quietMillis, 1), TimeUnit.MILLISECONDS);
+            if (key == null) {
+                if (!changed.isEmpty()) {
+                    return changed;
+                }
+                key = watchService.take();
+            }
+        }
+    }
+
+    private void collectChanges(final WatchKey key, final Set<Path> changed) {
+        final Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == OVERFLOW) {
+                changed.add(dir);
+                continue;
+            }
+            final Path path = dir.resolve((Path) event.context());
+            if (ignored.test(path)) {
+                continue;
+            }
+            changed.add(path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(path);
+                } catch (final IOException e) {
+                    // it's gone again already, or it's unreadable: either way, there's nothing in it to watch
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Matches fileset include/exclude patterns against lists of paths, for context directories which can't be scanned like a local directory (eg on the classpath, or in an archive).
+ */
+final class FileSetPatterns {
+    private FileSetPatterns() {
+    }
+
+    /**
+     * Selects the paths matching a fileset's patterns, with the same semantics as a local directory's fileset: a path is selected if it matches any include (or there are none)
+     * and no exclude, patterns ending in '/' match everything beneath, and the default excludes (eg SCM files) apply if requested.
+     *
+     * @param paths              the candidate paths, relative to the fileset's directory, with '/' separators
+     * @param includes           the include patterns
+     * @param excludes           the exclude patterns
+     * @param useDefaultExcludes whether to add the standard default excludes
+     * @return the matching paths, in their original order
+     */
+    static List<String> select(final Collection<String> paths, final List<String> includes, final List<String> excludes, final boolean useDefaultExcludes) {
+        final List<String> includePatterns = normalizePatterns(includes);
+        final List<String> excludePatterns = normalizePatterns(excludes);
+        if (useDefaultExcludes) {
+            excludePatterns.addAll(normalizePatterns(Arrays.asList(DirectoryScanner.DEFAULTEXCLUDES)));
+        }
+        return paths.stream()
+                .filter(path -> includePatterns.isEmpty() || includePatterns.stream().anyMatch(p -> SelectorUtils.matchPath(p, path, "/", true)))
+                .filter(path -> excludePatterns.stream().noneMatch(p -> SelectorUtils.matchPath(p, path, "/", true)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * As for a local fileset, a pattern ending in '/' matches everything beneath it.
+     */
+    private static List<String> normalizePatterns(final List<String> patterns) {
+        final List<String> normalized = new ArrayList<>();
+        for (String pattern : patterns) {
+            final String p = pattern.trim().replace('\\', '/');
+            normalized.add(p.endsWith("/") ? p + "**" : p);
+        }
+        return normalized;
+    }
+}
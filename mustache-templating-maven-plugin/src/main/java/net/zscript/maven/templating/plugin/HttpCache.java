@@ -0,0 +1,336 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A local cache of files fetched over http(s), for remote context and template directories. Each file is stored under the cache directory at a path mirroring its URL (eg
+ * "https/example.com/defs/a.yaml"), so that a cached remote directory can be read like a local one - see {@link #localPathFor(URI)}. Alongside, under "meta", each file's
+ * ETag, Last-Modified header and fetch time are kept.
+ * <p>
+ * A cached file younger than the TTL is used without contacting the server. An older one is revalidated with a conditional request (If-None-Match / If-Modified-Since), so
+ * that unchanged files aren't downloaded again. In offline mode, cached files are always used, however old. If the server can't be reached, a stale cached copy is used (with a
+ * warning).
+ * <p>
+ * This class is thread-safe, and as files are written atomically, a cache directory may be shared by concurrent builds.
+ */
+final class HttpCache {
+    static final int TIMEOUT_MILLIS = 30_000;
+
+    private static final String FILES_DIR = "files";
+    private static final String META_DIR  = "meta";
+
+    private static final String META_URL           = "url";
+    private static final String META_ETAG          = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_FETCHED       = "fetched";
+
+    private final Path                          directory;
+    private final long                          ttlMillis;
+    private final boolean                       offline;
+    private final Log                           log;
+    private final ConcurrentMap<String, Object> locks         = new ConcurrentHashMap<>();
+    private final AtomicInteger                 downloads     = new AtomicInteger();
+    private final AtomicInteger                 revalidations = new AtomicInteger();
+
+    /**
+     * @param directory the directory to keep the cache in; it's created when first needed
+     * @param ttlMillis how long a fetched file is used without revalidating it
+     * @param offline   true if the server mustn't be contacted (eg Maven's offline mode)
+     * @param log       for reporting problems
+     */
+    HttpCache(final Path directory, final long ttlMillis, final boolean offline, final Log log) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.offline = offline;
+        this.log = log;
+    }
+
+    /**
+     * @param uri a URI
+     * @return true if the URI is one this cache can fetch (ie http or https)
+     */
+    static boolean isCacheable(final URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    /**
+     * Determines where the content of a URL is kept in the cache. For a directory URI (ending in '/'), this is the local directory whose files mirror the remote ones.
+     *
+     * @param uri an http(s) URI
+     * @return the local path, whether or not it has been fetched yet
+     */
+    Path localPathFor(final URI uri) {
+        return directory.resolve(FILES_DIR).resolve(mirrorPath(uri));
+    }
+
+    /**
+     * Ensures that the URL's content is in the cache and is fresh (according to the TTL), fetching or revalidating it if required.
+     *
+     * @param uri an http(s) URI
+     * @return the path of the cached content
+     * @throws FileNotFoundException if the server says the file doesn't exist
+     * @throws IOException           if it can't be fetched (eg because we're offline), and isn't cached
+     */
+    Path fetch(final URI uri) throws IOException {
+        final String relative = mirrorPath(uri);
+        synchronized (locks.computeIfAbsent(relative, k -> new Object())) {
+            final Path       file     = directory.resolve(FILES_DIR).resolve(relative);
+            final Path       metaFile = directory.resolve(META_DIR).resolve(relative + ".properties");
+            final Properties meta     = readMeta(metaFile, uri);
+            final boolean    cached   = meta != null && Files.isRegularFile(file);
+
+            if (cached && (offline || System.currentTimeMillis() - fetchedTime(meta) < ttlMillis)) {
+                return file;
+            }
+            if (offline) {
+                throw new IOException("Not cached, and Maven is offline: " + uri);
+            }
+            try {
+                return download(uri, file, metaFile, cached ? meta : null);
+            } catch (final FileNotFoundException e) {
+                throw e;
+            } catch (final IOException e) {
+                if (!cached) {
+                    throw e;
+                }
+                log.warn("Cannot revalidate " + uri + " (" + e.getMessage() + "), so using cached copy");
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Fetches several URLs concurrently, as {@link #fetch(URI)}.
+     *
+     * @param uris    the URIs to fetch
+     * @param threads the maximum number of concurrent fetches
+     * @throws IOException if any of them fails
+     */
+    void fetchAll(final List<URI> uris, final int threads) throws IOException {
+        final int nThreads = Math.max(1, Math.min(threads, uris.size()));
+        if (nThreads <= 1) {
+            for (URI uri : uris) {
+                fetch(uri);
+            }
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+            final Thread t = new Thread(r, "mustache-templating-fetch");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final List<Future<Path>> results = new ArrayList<>();
+            for (URI uri : uris) {
+                results.add(executor.submit(() -> fetch(uri)));
+            }
+            for (Future<Path> result : results) {
+                result.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst fetching", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Fetch failed: " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of files downloaded so far (ie not revalidated as unchanged, nor used directly from the cache)
+     */
+    int getDownloadCount() {
+        return downloads.get();
+    }
+
+    /**
+     * @return the number of cached files confirmed as unchanged by the server so far
+     */
+    int getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    private Path download(final URI uri, final Path file, final Path metaFile, final Properties previousMeta) throws IOException {
+        final URL               url  = uri.toURL();
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            conn.setUseCaches(false);
+            if (previousMeta != null) {
+                if (previousMeta.getProperty(META_ETAG) != null) {
+                    conn.setRequestProperty("If-None-Match", previousMeta.getProperty(META_ETAG));
+                }
+                if (previousMeta.getProperty(META_LAST_MODIFIED) != null) {
+                    conn.setRequestProperty("If-Modified-Since", previousMeta.getProperty(META_LAST_MODIFIED));
+                }
+            }
+
+            final int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previousMeta != null) {
+                previousMeta.setProperty(META_FETCHED, Long.toString(System.currentTimeMillis()));
+                writeMeta(metaFile, previousMeta);
+                revalidations.incrementAndGet();
+                log.debug("HTTP cache: unchanged " + uri);
+                return file;
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                throw new FileNotFoundException("Not found (" + status + "): " + uri);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + status + " fetching " + uri);
+            }
+
+            try (InputStream in = conn.getInputStream()) {
+                writeAtomically(file, out -> {
+                    final byte[] buf = new byte[8192];
+                    for (int n; (n = in.read(buf)) != -1; ) {
+                        out.write(buf, 0, n);
+                    }
+                });
+            }
+            final Properties meta = new Properties();
+            meta.setProperty(META_URL, uri.toString());
+            meta.setProperty(META_FETCHED, Long.toString(System.currentTimeMillis()));
+            if (conn.getHeaderField("ETag") != null) {
+                meta.setProperty(META_ETAG, conn.getHeaderField("ETag"));
+            }
+            if (conn.getHeaderField("Last-Modified") != null) {
+                meta.setProperty(META_LAST_MODIFIED, conn.getHeaderField("Last-Modified"));
+            }
+            writeMeta(metaFile, meta);
+            downloads.incrementAndGet();
+            log.debug("HTTP cache: fetched " + uri);
+            return file;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static long fetchedTime(final Properties meta) {
+        try {
+            return Long.parseLong(meta.getProperty(META_FETCHED, "0"));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads a file's metadata, if it's for the same URI (it mightn't be, if two URIs map to the same path).
+     */
+    private static Properties readMeta(final Path metaFile, final URI uri) {
+        final Properties meta = new Properties();
+        try (Reader r = Files.newBufferedReader(metaFile, UTF_8)) {
+            meta.load(r);
+        } catch (final IOException e) {
+            return null;
+        }
+        return uri.toString().equals(meta.getProperty(META_URL)) ? meta : null;
+    }
+
+    private static void writeMeta(final Path metaFile, final Properties meta) throws IOException {
+        writeAtomically(metaFile, out -> {
+            final Writer w = new OutputStreamWriter(out, UTF_8);
+            meta.store(w, null);
+            w.flush();
+        });
+    }
+
+    private static void writeAtomically(final Path target, final Content content) throws IOException {
+        Files.createDirectories(target.getParent());
+        final Path tempFile = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(tempFile, target, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Maps a URI to a relative path: scheme, then host (and port), then the path's segments. Any characters which mightn't be valid in a filename are %-escaped.
+     */
+    private static String mirrorPath(final URI uri) {
+        final URI normalized = uri.normalize();
+        if (!isCacheable(normalized) || normalized.getHost() == null) {
+            throw new IllegalArgumentException("Not an http(s) URI: " + uri);
+        }
+        final StringBuilder sb = new StringBuilder(normalized.getScheme().toLowerCase()).append('/')
+                .append(escape(normalized.getHost().toLowerCase() + (normalized.getPort() != -1 ? "_" + normalized.getPort() : "")));
+        final String path = normalized.getRawPath() == null ? "" : normalized.getRawPath();
+        for (String segment : path.split("/", -1)) {
+            if (segment.equals("..")) {
+                throw new IllegalArgumentException("URI path escapes its root: " + uri);
+            }
+            if (!segment.isEmpty() && !segment.equals(".")) {
+                sb.append('/').append(escape(segment));
+            }
+        }
+        if (normalized.getRawQuery() != null) {
+            sb.append(escape("?" + normalized.getRawQuery()));
+        }
+        return sb.toString();
+    }
+
+    private static String escape(final String s) {
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(UTF_8)) {
+            final char c = (char) (b & 0xff);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '_' || c == '~' || c == '%' || c == '+') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
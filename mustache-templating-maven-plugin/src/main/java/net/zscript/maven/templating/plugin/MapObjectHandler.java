@@ -0,0 +1,85 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.List;
+import java.util.Map;
+
+import com.github.mustachejava.Binding;
+import com.github.mustachejava.Code;
+import com.github.mustachejava.TemplateContext;
+import com.github.mustachejava.reflect.ReflectionObjectHandler;
+
+/**
+ * An ObjectHandler specialised for contexts which are trees of Maps and Lists, as produced by the YAML context loader. The standard {@link ReflectionObjectHandler} resolves each
+ * variable through a cached chain of guards and wrappers, checked against every scope on each lookup; this instead looks names up directly in each Map scope, innermost first,
+ * following dotted names down through nested Maps.
+ * <p>
+ * The results are the same as the standard handler's: a name is first looked up whole (so a key "a.b" wins over "a" then "b"), and a dotted name continues the search in the
+ * next scope out if any part but the last is missing from a scope. Once all but the last part are found, though, the search stops: if the last part is missing, or a part before
+ * it is null, then the name is missing. If the search meets anything other than a Map, then that lookup falls back to the standard handler, so other objects (eg from a custom
+ * context loader) still work as before.
+ */
+class MapObjectHandler extends ReflectionObjectHandler {
+    /** Returned by the fast path when it can't resolve a name, so the standard binding must. */
+    private static final Object UNRESOLVED = new Object();
+    /** Returned when a part of a dotted name (other than the last) is missing from a scope, so the search continues in the next scope out. */
+    private static final Object NOT_FOUND  = new Object();
+
+    @Override
+    public Binding createBinding(final String name, final TemplateContext tc, final Code code) {
+        final Binding fallback = super.createBinding(name, tc, code);
+        if (name == null || name.isEmpty() || name.startsWith(".") || name.endsWith(".")) {
+            return fallback;
+        }
+        final String[] parts = name.indexOf('.') == -1 ? null : name.split("\\.");
+        return scopes -> {
+            final Object value = find(name, parts, scopes);
+            return value != UNRESOLVED ? value : fallback.get(scopes);
+        };
+    }
+
+    private Object find(final String name, final String[] parts, final List<Object> scopes) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            final Object scope = scopes.get(i);
+            if (scope == null) {
+                continue;
+            }
+            if (!(scope instanceof Map)) {
+                return UNRESOLVED;
+            }
+            final Map<?, ?> map = (Map<?, ?>) scope;
+            if (map.containsKey(name)) {
+                return coerce(map.get(name));
+            }
+            if (parts != null && map.containsKey(parts[0])) {
+                final Object value = findDotted(parts, coerce(map.get(parts[0])));
+                if (value != NOT_FOUND) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Object findDotted(final String[] parts, final Object first) {
+        Object current = first;
+        for (int i = 1; i < parts.length; i++) {
+            if (current == null) {
+                return null;
+            }
+            if (!(current instanceof Map)) {
+                return UNRESOLVED;
+            }
+            final Map<?, ?> map = (Map<?, ?>) current;
+            if (i < parts.length - 1 && !map.containsKey(parts[i])) {
+                return NOT_FOUND;
+            }
+            current = coerce(map.get(parts[i]));
+        }
+        return current;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.github.mustachejava.ObjectHandler;
+import com.github.mustachejava.reflect.ReflectionObjectHandler;
+
+/**
+ * The ways that templates can resolve variables against their contexts, selected with the plugin's 'objectHandler' parameter.
+ */
+enum ObjectHandlerType {
+    /** Mustache's standard handler, which works with any objects. */
+    REFLECTION(ReflectionObjectHandler::new),
+    /** Faster for contexts made of Maps and Lists (eg YAML), falling back to reflection for other objects. */
+    MAP(MapObjectHandler::new),
+    /** As MAP, but calling the getters, methods and fields of other objects (eg POJOs from a custom context loader) through cached MethodHandles. */
+    ACCESSOR(AccessorObjectHandler::new);
+
+    private final Supplier<ObjectHandler> factory;
+
+    ObjectHandlerType(final Supplier<ObjectHandler> factory) {
+        this.factory = factory;
+    }
+
+    ObjectHandler createObjectHandler() {
+        return factory.get();
+    }
+
+    /**
+     * @param name the type's name, in any case
+     * @return the matching type
+     * @throws IllegalArgumentException if there's no such type
+     */
+    static ObjectHandlerType fromName(final String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown objectHandler '" + name + "': expected one of "
+                    + Arrays.stream(values()).map(t -> t.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.mustachejava.Mustache;
+
+/**
+ * The sink that templates are rendered into, which encodes the rendered text into the bytes of an output file. Each render thread gets its own text buffer, byte buffer and
+ * charset encoder, which are reused for every file it renders (growing as needed to fit the largest), so in the steady state the only per-file allocation is the resulting byte
+ * array. Unlike a StringWriter, the text buffer isn't synchronized, and isn't copied into a String before encoding.
+ * <p>
+ * Unmappable or malformed characters are replaced with the charset's replacement, as {@link String#getBytes(Charset)} would. This class is thread-safe.
+ */
+final class OutputEncoder {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Charset                  charset;
+    private final int                      bufferSize;
+    private final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial(ThreadState::new);
+
+    /**
+     * @param charset    the charset to encode the output files with
+     * @param bufferSize the initial size of each thread's buffers, in chars and bytes
+     */
+    OutputEncoder(final Charset charset, final int bufferSize) {
+        this.charset = charset;
+        this.bufferSize = Math.max(bufferSize, 16);
+    }
+
+    /**
+     * @return the charset that output is encoded with
+     */
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Renders the template with the supplied scopes, using this thread's buffers.
+     *
+     * @param mustache the template
+     * @param scopes   the scopes to render it with
+     * @return the encoded output
+     */
+    byte[] render(final Mustache mustache, final List<Object> scopes) {
+        final ThreadState state = threadStates.get();
+        state.text.reset();
+        mustache.execute(state.text, scopes);
+        return state.encode();
+    }
+
+    /**
+     * One thread's reusable buffers.
+     */
+    private final class ThreadState {
+        private final TextBuffer     text    = new TextBuffer(bufferSize);
+        private final CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private       ByteBuffer     bytes   = ByteBuffer.allocate(bufferSize);
+
+        byte[] encode() {
+            final CharBuffer in = text.asCharBuffer();
+            encoder.reset();
+            // cast to Buffer, so that this calls the Java 8 method even when compiled by a later JDK
+            ((Buffer) bytes).clear();
+            // with REPLACE actions, encoding only stops early when the byte buffer is full
+            while (encoder.encode(in, bytes, true).isOverflow()) {
+                grow();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                grow();
+            }
+            return Arrays.copyOf(bytes.array(), bytes.position());
+        }
+
+        private void grow() {
+            final ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+            ((Buffer) bytes).flip();
+            larger.put(bytes);
+            bytes = larger;
+        }
+    }
+
+    /**
+     * An unsynchronized Writer into a growable char array, which can be reset and encoded without copying.
+     */
+    private static final class TextBuffer extends Writer {
+        private char[]     buf;
+        private int        count;
+        private CharBuffer view;
+
+        TextBuffer(final int initialSize) {
+            buf = new char[initialSize];
+            view = CharBuffer.wrap(buf);
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        CharBuffer asCharBuffer() {
+            ((Buffer) view).clear();
+            ((Buffer) view).limit(count);
+            return view;
+        }
+
+        private void ensureCapacity(final int required) {
+            if (required > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+                view = CharBuffer.wrap(buf);
+            }
+        }
+
+        @Override
+        public void write(final int c) {
+            ensureCapacity(count + 1);
+            buf[count++] = (char) c;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(cbuf, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            ensureCapacity(count + len);
+            str.getChars(off, off + len, buf, count);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
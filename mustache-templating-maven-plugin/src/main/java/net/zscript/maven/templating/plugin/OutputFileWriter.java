@@ -0,0 +1,137 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes generated content to output files, optionally leaving any existing file untouched if it already has exactly that content. Keeping unchanged files untouched preserves
+ * their timestamps, so that downstream plugins doing stale-file detection (eg the compiler plugin) don't see them as modified.
+ * <p>
+ * Files which do need writing are written whole, through a FileChannel, to a temporary file in the same directory, and then moved into place atomically, so other processes never
+ * see partially written output. Each writing thread reuses its own buffer for comparing existing files. This class is thread-safe.
+ */
+final class OutputFileWriter {
+    private final boolean                 writeIfChanged;
+    private final ThreadLocal<ByteBuffer> compareBuffers;
+    private final AtomicInteger           changedCount   = new AtomicInteger();
+    private final AtomicInteger           unchangedCount = new AtomicInteger();
+
+    /**
+     * @param writeIfChanged if true, then files which already have the required content are not rewritten
+     * @param bufferSize     the size of the buffer used (per thread) to read existing files for comparison
+     */
+    OutputFileWriter(final boolean writeIfChanged, final int bufferSize) {
+        this.writeIfChanged = writeIfChanged;
+        this.compareBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(Math.max(bufferSize, 512)));
+    }
+
+    /**
+     * Writes the content to the file, unless it already contains exactly that content (and writeIfChanged is set).
+     *
+     * @param file    the file to write
+     * @param content the required content
+     * @return true if the file was written, false if it was left unchanged
+     * @throws IOException if the file can't be read or written
+     */
+    boolean write(final Path file, final byte[] content) throws IOException {
+        if (writeIfChanged && hasContent(file, content, compareBuffers.get())) {
+            unchangedCount.incrementAndGet();
+            return false;
+        }
+
+        writeAtomically(file, content);
+        changedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Writes the content to a temporary file alongside the target, and then moves it into place, atomically if the filesystem supports it. The temporary file is created with the
+     * default permissions (unlike {@link Files#createTempFile}), as the result is intended to be readable like any other build output.
+     *
+     * @param file    the file to write
+     * @param content the required content
+     * @throws IOException if the file can't be written
+     */
+    static void writeAtomically(final Path file, final byte[] content) throws IOException {
+        final Path tempFile = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, CREATE_NEW, WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(tempFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the number of files written so far
+     */
+    int getChangedCount() {
+        return changedCount.get();
+    }
+
+    /**
+     * @return the number of files left untouched so far, because they already had the required content
+     */
+    int getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    /**
+     * Compares the file's content with the supplied bytes, reading the file a buffer at a time so it's never read entirely into memory, and stopping at the first difference.
+     *
+     * @param file    the file to check
+     * @param content the required content
+     * @param buf     a buffer to read the file into
+     * @return true if the file exists and has exactly the required content
+     * @throws IOException if the file exists but can't be read
+     */
+    static boolean hasContent(final Path file, final byte[] content, final ByteBuffer buf) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != content.length) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            final byte[] array = buf.array();
+            int          pos   = 0;
+            ((Buffer) buf).clear();
+            for (int n; (n = channel.read(buf)) != -1; ((Buffer) buf).clear()) {
+                if (pos + n > content.length) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (array[i] != content[pos + i]) {
+                        return false;
+                    }
+                }
+                pos += n;
+            }
+            return pos == content.length;
+        }
+    }
+}
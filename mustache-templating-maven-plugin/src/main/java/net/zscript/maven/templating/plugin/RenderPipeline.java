@@ -0,0 +1,366 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import net.zscript.maven.templating.contextloader.LoadableEntities.LoadedEntityScopes;
+
+/**
+ * A streaming pipeline which loads, renders and writes contexts in three overlapping stages, each with its own pool of worker threads, connected by bounded queues. Only a bounded
+ * number of loaded contexts is ever held in memory, whatever the number of context files, and the overall time approaches that of the slowest stage rather than the sum of all
+ * three.
+ * <p>
+ * The context files are split into batches, and each batch is loaded with a single call to one of the load functions, which hands over the batch's contexts one at a time as
+ * they're produced - so rendering can start before a batch has finished loading, and a batch producing a great many contexts never has them all in memory at once. Every
+ * context is identified by its position in the sequence (batch number, then position in the batch's results), so despite running in parallel, the pipeline behaves
+ * deterministically:
+ * <ul>
+ *     <li>completed contexts are reported to the caller in sequence order, on the calling thread;</li>
+ *     <li>if anything fails, the failure which is reported is the first in sequence order (ie the same one a serial run would have reported), and no contexts after it are
+ *     reported.</li>
+ * </ul>
+ *
+ * Only a small summary of each written context (eg its output paths) is kept until it's reported, so contexts held up behind a slow one don't stay in memory.
+ *
+ * @param <R> the type of a rendered context, passed from the render stage to the write stage
+ * @param <C> the type of the summary of a written context, passed from the write stage to the completion handler
+ */
+final class RenderPipeline<R, C> {
+    /** Sequence number which is greater than any real one, meaning "no failure yet". */
+    private static final long NO_FAILURE = Long.MAX_VALUE;
+
+    private final int renderThreads;
+    private final int writeThreads;
+
+    private final AtomicLong                  firstFailedSeq = new AtomicLong(NO_FAILURE);
+    private final Map<Long, Throwable>        failures       = new HashMap<>();
+    private final BlockingQueue<Event<C>>     events         = new LinkedBlockingQueue<>();
+    private final BlockingQueue<RenderItem>   renderQueue;
+    private final BlockingQueue<WriteItem<R>> writeQueue;
+    private final List<Thread>                workers        = new ArrayList<>();
+
+    /**
+     * @param renderThreads the number of threads rendering contexts
+     * @param writeThreads  the number of threads writing output files
+     * @param queueSize     the capacity of each of the queues between the stages
+     */
+    RenderPipeline(final int renderThreads, final int writeThreads, final int queueSize) {
+        this.renderThreads = renderThreads;
+        this.writeThreads = writeThreads;
+        this.renderQueue = new ArrayBlockingQueue<>(queueSize);
+        this.writeQueue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     * Runs the pipeline to completion.
+     *
+     * @param batches           the context file paths, split into batches to be loaded one batch at a time
+     * @param loaders           the load functions, one per load thread (each is only ever called from its own thread, so needn't be thread-safe)
+     * @param renderer          renders a context, eg into the content of its output file(s)
+     * @param writer            writes a context's rendered output, returning whatever the completion handler needs to know about it
+     * @param completionHandler called on the calling thread, in sequence order, with the summary of each context which has been written
+     * @throws MojoExecutionException if any stage fails, describing the first failure in sequence order
+     */
+    void run(final List<List<String>> batches, final List<LoadStage> loaders, final Stage<LoadedEntityScopes, R> renderer,
+            final WriteStage<R, C> writer, final Consumer<C> completionHandler) throws MojoExecutionException {
+        final AtomicInteger nextBatch       = new AtomicInteger();
+        final AtomicInteger activeLoaders   = new AtomicInteger(loaders.size());
+        final AtomicInteger activeRenderers = new AtomicInteger(renderThreads);
+        final AtomicInteger activeWriters   = new AtomicInteger(writeThreads);
+
+        for (int i = 0; i < loaders.size(); i++) {
+            final LoadStage loader = loaders.get(i);
+            startWorker("load", i, () -> {
+                try {
+                    for (int batch; (batch = nextBatch.getAndIncrement()) < batches.size(); ) {
+                        load(batch, batches.get(batch), loader);
+                    }
+                } finally {
+                    if (activeLoaders.decrementAndGet() == 0) {
+                        for (int n = 0; n < renderThreads; n++) {
+                            renderQueue.put(RenderItem.END);
+                        }
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < renderThreads; i++) {
+            startWorker("render", i, () -> {
+                try {
+                    for (RenderItem item; (item = renderQueue.take()) != RenderItem.END; ) {
+                        render(item, renderer);
+                    }
+                } finally {
+                    if (activeRenderers.decrementAndGet() == 0) {
+                        for (int n = 0; n < writeThreads; n++) {
+                            writeQueue.put(WriteItem.end());
+                        }
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < writeThreads; i++) {
+            startWorker("write", i, () -> {
+                try {
+                    for (WriteItem<R> item; (item = writeQueue.take()).context != null; ) {
+                        write(item, writer);
+                    }
+                } finally {
+                    if (activeWriters.decrementAndGet() == 0) {
+                        events.add(Event.end());
+                    }
+                }
+            });
+        }
+
+        try {
+            reportCompletions(completionHandler);
+        } finally {
+            workers.forEach(Thread::interrupt);
+        }
+
+        final long failedSeq = firstFailedSeq.get();
+        if (failedSeq != NO_FAILURE) {
+            final Throwable failure;
+            synchronized (failures) {
+                failure = failures.get(failedSeq);
+            }
+            if (failure instanceof MojoExecutionException) {
+                throw (MojoExecutionException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new MojoExecutionException("Failed to generate output", failure);
+        }
+    }
+
+    private void load(final int batch, final List<String> paths, final LoadStage loader) throws InterruptedException {
+        final long loadSeq = seq(batch, -1);
+        if (loadSeq > firstFailedSeq.get()) {
+            return;
+        }
+        final int[] count = { 0 };
+        try {
+            loader.load(paths, context -> {
+                renderQueue.put(new RenderItem(seq(batch, count[0]++), context));
+                // no point producing more, if something before the next one has already failed
+                return seq(batch, count[0]) < firstFailedSeq.get();
+            });
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception | Error e) {
+            // positioned after the contexts already produced, which are still generated (as a serial run would have done)
+            fail(seq(batch, count[0]), e);
+            return;
+        }
+        events.add(new Event<>(loadSeq, null, count[0]));
+    }
+
+    private void render(final RenderItem item, final Stage<LoadedEntityScopes, R> renderer) throws InterruptedException {
+        if (item.seq > firstFailedSeq.get()) {
+            return;
+        }
+        try {
+            final R rendered = renderer.apply(item.context);
+            writeQueue.put(new WriteItem<>(item.seq, item.context, rendered));
+        } catch (final Exception | Error e) {
+            fail(item.seq, e);
+        }
+    }
+
+    private void write(final WriteItem<R> item, final WriteStage<R, C> writer) {
+        if (item.seq > firstFailedSeq.get()) {
+            return;
+        }
+        try {
+            final C completion = writer.write(batchOf(item.seq), item.context, item.rendered);
+            events.add(new Event<>(item.seq, completion, Event.WRITTEN));
+        } catch (final Exception | Error e) {
+            fail(item.seq, e);
+        }
+    }
+
+    /**
+     * Runs on the calling thread, handing completed contexts' summaries to the handler in sequence order. Each batch's size is only known once it has been loaded, so completions
+     * which arrive ahead of the next expected one are held until it's their turn.
+     */
+    private void reportCompletions(final Consumer<C> completionHandler) throws MojoExecutionException {
+        final Map<Long, C>          pending    = new HashMap<>();
+        final Map<Integer, Integer> batchSizes = new HashMap<>();
+        int                         batch      = 0;
+        int                         index      = 0;
+
+        try {
+            for (Event<C> event; (event = events.take()).seq != NO_FAILURE; ) {
+                if (event.batchSize != Event.WRITTEN) {
+                    batchSizes.put(batchOf(event.seq), event.batchSize);
+                } else {
+                    pending.put(event.seq, event.completion);
+                }
+                while (true) {
+                    final Integer batchSize = batchSizes.get(batch);
+                    if (batchSize != null && index == batchSize) {
+                        batchSizes.remove(batch);
+                        batch++;
+                        index = 0;
+                        continue;
+                    }
+                    if (seq(batch, index) > firstFailedSeq.get() || !pending.containsKey(seq(batch, index))) {
+                        break;
+                    }
+                    completionHandler.accept(pending.remove(seq(batch, index)));
+                    index++;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted whilst generating output", e);
+        }
+    }
+
+    private void fail(final long seq, final Throwable e) {
+        synchronized (failures) {
+            failures.put(seq, e);
+        }
+        firstFailedSeq.accumulateAndGet(seq, Math::min);
+    }
+
+    private void startWorker(final String stageName, final int index, final Worker body) {
+        final Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "mustache-templating-" + stageName + "-" + (index + 1));
+        // daemon threads, so a stuck stage can never prevent the build JVM from exiting
+        t.setDaemon(true);
+        workers.add(t);
+        t.start();
+    }
+
+    /**
+     * Sequence numbers order contexts by batch, then by position within the batch. A batch's load step has position -1, so it sorts before all the contexts it produces.
+     */
+    private static long seq(final int batch, final int index) {
+        return ((long) batch << 32) | (index + 1L);
+    }
+
+    private static int batchOf(final long seq) {
+        return (int) (seq >>> 32);
+    }
+
+    /**
+     * A function performed by a pipeline stage, which may throw any exception.
+     */
+    @FunctionalInterface
+    interface Stage<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * The first stage, which loads a batch of context files, passing each of the resulting contexts on as it's produced.
+     */
+    @FunctionalInterface
+    interface LoadStage {
+        void load(List<String> paths, ContextSink sink) throws Exception;
+    }
+
+    /**
+     * Receives the contexts produced by a {@link LoadStage}, blocking while the next stage's queue is full.
+     */
+    @FunctionalInterface
+    interface ContextSink {
+        /**
+         * @param context the next context
+         * @return true if more contexts are wanted, or false if the load stage should stop (as generation has already failed)
+         * @throws InterruptedException if interrupted while waiting for space in the queue
+         */
+        boolean accept(LoadedEntityScopes context) throws InterruptedException;
+    }
+
+    /**
+     * The final stage, which writes a rendered context, and summarizes it for the completion handler. It's told which batch the context was loaded from, by its index in the
+     * list of batches.
+     */
+    @FunctionalInterface
+    interface WriteStage<R, C> {
+        C write(int batch, LoadedEntityScopes context, R rendered) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        void run() throws InterruptedException;
+    }
+
+    private static final class RenderItem {
+        static final RenderItem END = new RenderItem(NO_FAILURE, null);
+
+        final long               seq;
+        final LoadedEntityScopes context;
+
+        RenderItem(final long seq, final LoadedEntityScopes context) {
+            this.seq = seq;
+            this.context = context;
+        }
+    }
+
+    private static final class WriteItem<R> {
+        final long               seq;
+        final LoadedEntityScopes context;
+        final R                  rendered;
+
+        WriteItem(final long seq, final LoadedEntityScopes context, final R rendered) {
+            this.seq = seq;
+            this.context = context;
+            this.rendered = rendered;
+        }
+
+        /** The end-of-stream marker, distinguished by having no context. */
+        static <R> WriteItem<R> end() {
+            return new WriteItem<>(NO_FAILURE, null, null);
+        }
+    }
+
+    /**
+     * Reported to the calling thread: either a batch has been loaded (batchSize is the number of contexts it produced), or a context has been written (batchSize is
+     * {@link #WRITTEN}, and completion is the writer's summary of it).
+     */
+    private static final class Event<C> {
+        static final int WRITTEN = -1;
+
+        final long seq;
+        final C    completion;
+        final int  batchSize;
+
+        Event(final long seq, final C completion, final int batchSize) {
+            this.seq = seq;
+            this.completion = completion;
+            this.batchSize = batchSize;
+        }
+
+        /** The end-of-stream marker, distinguished by its sequence number. */
+        static <C> Event<C> end() {
+            return new Event<>(NO_FAILURE, null, 0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Configures one of the templates applied to every context by an execution (see the mojo's 'templates' parameter), and how its output files are named.
+ * <p>
+ * The output file name is given by the {@link #outputPattern}, which is expanded for each context from the output path chosen by the context loader (eg "foo/bar.java" for the
+ * context file "foo/bar.yaml"), using these placeholders:
+ * <ul>
+ *     <li>{path} - the whole output path, eg "foo/bar.java"</li>
+ *     <li>{dir} - its directory, with a trailing '/' (or empty if there is none), eg "foo/"</li>
+ *     <li>{name} - its file name, without extension, eg "bar"</li>
+ *     <li>{ext} - its extension (without the '.'), eg "java"</li>
+ * </ul>
+ * So for instance, "{dir}{name}Impl.{ext}" gives "foo/barImpl.java".
+ */
+public class TemplateMapping {
+    /** The output pattern which simply uses the output path chosen by the context loader. */
+    static final String DEFAULT_OUTPUT_PATTERN = "{path}";
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([^}]*)}");
+
+    /**
+     * The template file name, possibly with a relative path, resolved in the same way as the 'mainTemplate' parameter.
+     */
+    private String template;
+
+    /**
+     * The pattern for output file paths, relative to the output directory. Defaults to "{path}".
+     */
+    private String outputPattern = DEFAULT_OUTPUT_PATTERN;
+
+    public TemplateMapping() {
+    }
+
+    TemplateMapping(final String template, final String outputPattern) {
+        this.template = template;
+        this.outputPattern = outputPattern;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(final String template) {
+        this.template = template;
+    }
+
+    public String getOutputPattern() {
+        return outputPattern;
+    }
+
+    public void setOutputPattern(final String outputPattern) {
+        this.outputPattern = outputPattern;
+    }
+
+    /**
+     * Checks that the template is set, and that the output pattern only uses known placeholders.
+     *
+     * @throws IllegalArgumentException if not
+     */
+    void validate() {
+        if (template == null || template.isEmpty()) {
+            throw new IllegalArgumentException("A template mapping has no template");
+        }
+        if (outputPattern == null || outputPattern.isEmpty()) {
+            throw new IllegalArgumentException("Template mapping for " + template + " has no outputPattern");
+        }
+        final Matcher m = PLACEHOLDER.matcher(outputPattern);
+        while (m.find()) {
+            if (!m.group(1).matches("path|dir|name|ext")) {
+                throw new IllegalArgumentException("Unknown placeholder {" + m.group(1) + "} in outputPattern for " + template + ": " + outputPattern);
+            }
+        }
+    }
+
+    /**
+     * Expands the output pattern for a context.
+     *
+     * @param loaderOutputPath the relative output path chosen by the context loader
+     * @return the relative path of this template's output for the context
+     */
+    Path resolveOutputPath(final Path loaderOutputPath) {
+        if (DEFAULT_OUTPUT_PATTERN.equals(outputPattern)) {
+            return loaderOutputPath;
+        }
+        final Path   parent   = loaderOutputPath.getParent();
+        final String fileName = loaderOutputPath.getFileName().toString();
+        final int    dotIndex = fileName.lastIndexOf('.');
+
+        final Matcher      m  = PLACEHOLDER.matcher(outputPattern);
+        final StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            final String value;
+            switch (m.group(1)) {
+            case "path":
+                value = loaderOutputPath.toString();
+                break;
+            case "dir":
+                value = parent == null ? "" : parent + "/";
+                break;
+            case "name":
+                value = dotIndex == -1 ? fileName : fileName.substring(0, dotIndex);
+                break;
+            default:
+                value = dotIndex == -1 ? "" : fileName.substring(dotIndex + 1);
+                break;
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(value));
+        }
+        m.appendTail(sb);
+        return loaderOutputPath.getFileSystem().getPath(sb.toString());
+    }
+
+    @Override
+    public String toString() {
+        return template + " -> " + outputPattern;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import com.github.mustachejava.MustacheResolver;
+
+/**
+ * A MustacheResolver, together with a key which uniquely identifies where it resolves templates from (eg an absolute directory, or a classpath resource root). Two TemplateRoots
+ * with the same key resolve the same names to the same resources.
+ */
+final class TemplateRoot {
+    private final String           key;
+    private final MustacheResolver resolver;
+
+    TemplateRoot(final String key, final MustacheResolver resolver) {
+        this.key = key;
+        this.resolver = resolver;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    MustacheResolver getResolver() {
+        return resolver;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
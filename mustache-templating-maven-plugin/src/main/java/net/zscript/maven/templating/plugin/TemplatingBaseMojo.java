@@ -7,63 +7,118 @@ package net.zscript.maven.templating.plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.stream;
 
-import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
-import com.github.mustachejava.MustacheFactory;
-import com.github.mustachejava.MustacheResolver;
 import com.github.mustachejava.resolver.ClasspathResolver;
 import com.github.mustachejava.resolver.DefaultResolver;
 import com.github.mustachejava.resolver.FileSystemResolver;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.model.fileset.FileSet;
 import org.apache.maven.shared.model.fileset.util.FileSetManager;
 
+import net.zscript.maven.templating.contextloader.FragmentCache;
 import net.zscript.maven.templating.contextloader.LoadableEntities;
 import net.zscript.maven.templating.contextloader.LoadableEntities.LoadedEntityScopes;
+import net.zscript.maven.templating.contextloader.ParsedContextCache;
 import net.zscript.maven.templating.contextloader.TemplatingPluginContextLoader;
+import net.zscript.maven.templating.plugin.BuildMetrics.Phase;
 
 /**
- * Common superclass for the "Main" and "Test" mojos.
+ * Common superclass for the "Main", "Test" and "Watch" mojos.
+ * <p>
+ * The mojos are thread-safe, so they can run concurrently in a parallel ({@code mvn -T}) build: an execution never modifies its configured parameters, which are resolved against
+ * the goal's defaults into local values instead, and everything shared between executions (through {@link BuildSessionScope}, or on disk) is itself thread-safe.
  */
 abstract class TemplatingBaseMojo extends AbstractMojo {
-    private static final String     FILE_TYPE_SUFFIX_DEFAULT = "java";
-    private static final FileSystem FS                       = FileSystems.getDefault();
+    private static final String     FILE_TYPE_SUFFIX_DEFAULT  = "java";
+    private static final FileSystem FS                        = FileSystems.getDefault();
+    private static final String     BUILD_STATE_DIR           = "mustache-templating";
+    private static final String     FILE_TEMPLATE_ROOT_PREFIX = "file:";
 
     /**
-     * Defines the directory where the template file is found. The 'mainTemplate' will be searched relative to this directory, and Mustache 'partial' files will be too. Defaults to
+     * Defines the directory where the template files are found. The 'mainTemplate' (and any 'templates') will be searched relative to this directory, and Mustache 'partial' files
+     * will be too. Defaults to
      * 'src/main/templates' (or 'src/test/templates' if 'test-transform' goal is used). This param may be a directory URL instead, and it may use a 'classpath:/' scheme to read
-     * from classpath resources.
+     * from classpath resources. It may also be a zip or jar file, optionally followed by '!/' and a directory within it (or a 'jar:' URL), which is read in place.
      */
     @Parameter
     protected String templateDirectory;
 
     /**
-     * A file name, possibly with a relative path, to specify the template file to be used. Described more fully in {@link #templateDirectory}.
+     * A file name, possibly with a relative path, to specify the template file to be used. Described more fully in {@link #templateDirectory}. Each context's output file is named
+     * by the context loader. Either this or {@link #templates} (or both) must be set.
      */
-    @Parameter(required = true)
+    @Parameter
     protected String mainTemplate;
 
+    /**
+     * A list of additional templates to apply to every context, each with an 'outputPattern' naming its output files. Each context is loaded only once, however many templates
+     * it's rendered with. For example, to generate an interface and an implementation from each context:
+     * <pre>
+     * &lt;templates&gt;
+     *     &lt;template&gt;
+     *         &lt;template&gt;interface.mustache&lt;/template&gt;
+     *         &lt;outputPattern&gt;{dir}{name}.{ext}&lt;/outputPattern&gt;
+     *     &lt;/template&gt;
+     *     &lt;template&gt;
+     *         &lt;template&gt;impl.mustache&lt;/template&gt;
+     *         &lt;outputPattern&gt;{dir}{name}Impl.{ext}&lt;/outputPattern&gt;
+     *     &lt;/template&gt;
+     * &lt;/templates&gt;
+     * </pre>
+     * The placeholders are taken from the output path chosen by the context loader: {path} is the whole path, {dir} its directory (with trailing '/'), {name} the file name
+     * without extension, and {ext} the extension. If 'mainTemplate' is also set, it is applied first, with the output path chosen by the context loader. All templates are
+     * resolved from the same template directory, which is the one containing the first of them.
+     */
+    @Parameter
+    protected List<TemplateMapping> templates;
+
     /**
      * A fileset describing a set of context files (ie JSON/YAML files for the default transformer). Defaults to 'src/main/contexts' (or 'src/test/contexts' if 'test-transform'
      * goal is used). If the &lt;directory&gt; element is specified but does not correspond to an existing directory, then it will be attempted as a URL, also supporting the
-     * "classpath:" scheme to read from classpath resources. Note, if a URL directory is specified in the fileset, then only specific &lt;include&gt; tags with relative paths are
-     * supported with URLs - no wildcards, no excludes etc.
+     * "classpath:" scheme to read from classpath resources. A "classpath:" directory supports wildcard includes and excludes, just like a local one (its resources are indexed
+     * once per build, however many executions use them). Other URL directories can't be listed, so only specific &lt;include&gt; tags with relative paths are supported - no
+     * wildcards, no excludes etc. The &lt;directory&gt; may also be a zip or jar file, optionally followed by '!/' and a directory within it (or a 'jar:' URL): the archive
+     * is opened once per build, and read in place, without extracting it, with full wildcard support.
      */
     @Parameter
     protected FileSet contexts;
@@ -77,7 +132,8 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
 
     /**
      * The fully-qualified classname of a {@link TemplatingPluginContextLoader} to use for loading and mapping the files described by the {@code contexts}. Changing this allows you
-     * to perform arbitrary transformations from any file-type you can read.
+     * to perform arbitrary transformations from any file-type you can read. The built-in alternative
+     * {@code net.zscript.maven.templating.contextloader.MultiFormatTemplatingPluginContextLoader} reads JSON, YAML and Java properties files, choosing by suffix.
      * <p>
      * The class you specify here must be built in a separate Maven module from the one you want to use it, which must be added as a dependency of the plugin execution definition.
      * See the separate test project _mustache-templating-tests_ for an example.
@@ -85,6 +141,13 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
     @Parameter(defaultValue = "net.zscript.maven.templating.contextloader.YamlTemplatingPluginContextLoader")
     protected String contextLoaderClass;
 
+    /**
+     * Properties passed to the {@link #contextLoaderClass} when it's initialised, to configure it. Context loaders which declare themselves reusable are kept for the whole build,
+     * so that every execution (in any module) with the same loader class and properties shares the same initialised instance.
+     */
+    @Parameter
+    protected Map<String, String> contextLoaderProperties;
+
     /**
      * If true, then an empty context fileset is considered an error.
      */
@@ -104,54 +167,238 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
     @Parameter
     protected String generateSources;
 
+    /**
+     * The number of threads used to load context files. Each has its own instance of the {@link #contextLoaderClass}, unless the loader declares itself thread-safe, in which case
+     * one instance is shared (and it may also load the files within each batch concurrently - see {@link #loadBatchSize}). Loading, rendering and writing run as overlapping stages
+     * of a pipeline, with bounded queues between them. Output is identical whatever the thread settings, and log messages are always reported in context order.
+     */
+    @Parameter(defaultValue = "1")
+    protected int loadThreads;
+
+    /**
+     * The number of threads used to render the contexts. If zero or less (the default), then the number of available processors is used. See {@link #loadThreads}.
+     */
+    @Parameter(defaultValue = "0")
+    protected int renderThreads;
+
+    /**
+     * The number of threads used to write the output files. If zero or less (the default), then the number of available processors is used. See {@link #loadThreads}.
+     */
+    @Parameter(defaultValue = "0")
+    protected int writeThreads;
+
+    /**
+     * The number of context files passed to the context loader in each call. The default of 1 keeps memory use flat however many context files there are. If your context loader
+     * needs to see all the context files together (eg to combine them), set this to zero or less to load them all in a single call. A thread-safe context loader loads the files
+     * within a batch concurrently, whilst still returning them in order.
+     */
+    @Parameter(defaultValue = "1")
+    protected int loadBatchSize;
+
+    /**
+     * The capacity of each of the queues between the load, render and write stages, bounding the number of loaded contexts held in memory.
+     */
+    @Parameter(defaultValue = "64")
+    protected int pipelineQueueSize;
+
+    /**
+     * If true (the default), then each output is rendered in memory and compared with any existing output file, which is only replaced if its content differs. Leaving unchanged
+     * files untouched preserves their timestamps, so that downstream plugins (eg the compiler) don't consider them stale. If false, every output file is rewritten.
+     */
+    @Parameter(defaultValue = "true")
+    protected boolean writeIfChanged;
+
+    /**
+     * How templates look up variables in the contexts: "reflection" (the default) uses Mustache's standard handler, which works with any objects; "map" is faster for contexts
+     * which are trees of Maps and Lists, such as those loaded from YAML, and falls back to reflection for other objects; "accessor" is like "map", but calls the getters, methods
+     * and fields of other objects (eg POJOs from a custom context loader) through MethodHandles which are created once per member, rather than by reflection.
+     */
+    @Parameter(defaultValue = "reflection")
+    protected String objectHandler;
+
+    /**
+     * The character encoding of the output files.
+     */
+    @Parameter(defaultValue = "UTF-8")
+    protected String outputEncoding;
+
+    /**
+     * The initial size, in chars and bytes, of the buffers each render thread reuses to render and encode output files (they grow to fit larger outputs), and of the buffer each
+     * write thread uses to compare existing files.
+     */
+    @Parameter(defaultValue = "8192")
+    protected int outputBufferSize;
+
+    /**
+     * If true, then a record of the inputs used to generate each output is kept under the build directory, and later runs skip any context file whose inputs haven't changed:
+     * that is, the context file itself, any fragments it includes, the template and any partials it uses, the context loader and this plugin's configuration. This is off by
+     * default, as it's only safe if each context file's outputs depend on nothing else: don't enable it if your context loader reads from other files, as changes to those can't
+     * be detected. It's ignored if {@link #loadBatchSize} is zero or less, as a loader which combines all the context files must always be given all of them.
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * If true (the default), then output files which an earlier run of this execution generated, but which are no longer generated (eg because their context file was deleted or
+     * renamed), are deleted - along with any directories left empty - so the output directory never needs cleaning. Files which this execution didn't generate are never deleted.
+     */
+    @Parameter(defaultValue = "true")
+    protected boolean pruneOutputs;
+
+    /**
+     * If true (the default), then context loaders which support it (such as the default YAML loader) keep a cache of parsed context files in the
+     * {@link #contextCacheDirectory}, so that files which haven't changed since an earlier build are decoded from a compact binary form rather than parsed again.
+     */
+    @Parameter(defaultValue = "true")
+    protected boolean contextCache;
+
+    /**
+     * The directory holding the cache of parsed context files. See {@link #contextCache}. It may be shared by several executions.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/mustache-templating/context-cache")
+    protected File contextCacheDirectory;
+
+    /**
+     * The maximum total size in bytes of the cache of parsed context files. After each execution, cache entries whose context file has been deleted or changed are evicted, and
+     * then the least recently used are evicted until the cache is within this size.
+     */
+    @Parameter(defaultValue = "67108864")
+    protected long contextCacheMaxSize;
+
+    /**
+     * If true, then a JSON report of the execution is written to the build directory, as "mustache-templating/&lt;goal&gt;-&lt;executionId&gt;-report.json". It gives the time
+     * spent in each phase (resolving, compiling, scanning, fingerprinting, loading, rendering and writing), with item counts, bytes produced and bytes allocated, together with any
+     * timings reported by the context loader. A one-line summary of the same timings is always logged.
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean buildReport;
+
+    /**
+     * If true (the default), then context files and templates in remote (http or https) directories are kept in a local cache in the {@link #httpCacheDirectory}, rather than
+     * fetched again by every build. Cached files are revalidated with the server once older than the {@link #httpCacheTtl}, using their ETag or Last-Modified time, so unchanged
+     * files aren't downloaded again. In Maven's offline mode, cached files are used however old, and missing ones are an error.
+     */
+    @Parameter(defaultValue = "true")
+    protected boolean httpCache;
+
+    /**
+     * The directory holding the cache of remote files. See {@link #httpCache}. By default it's in the local Maven repository, so it's shared by all builds.
+     */
+    @Parameter(defaultValue = "${settings.localRepository}/.cache/mustache-templating/http")
+    protected File httpCacheDirectory;
+
+    /**
+     * How long, in seconds, a cached remote file is used before it's revalidated with the server. See {@link #httpCache}.
+     */
+    @Parameter(defaultValue = "600")
+    protected long httpCacheTtl;
+
+    /**
+     * The maximum number of remote context files fetched concurrently.
+     */
+    @Parameter(defaultValue = "4")
+    protected int httpFetchThreads;
+
     @Parameter(defaultValue = "${project}", readonly = true, required = true)
     protected MavenProject project;
 
-    protected final List<String> templateRootDirs = new ArrayList<>();
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    protected MavenSession session;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    protected MojoExecution mojoExecution;
+
+    private HttpCache          remoteFileCache;
+    private ParsedContextCache parsedContextCache;
 
     /**
      * Performs the actual execution for either of the subclass Mojos.
      *
-     * @param contextDefaultDir the base directory for loading context files (differs for main vs test)
-     * @param outputDefaultDir  the base directory for putting generated files (differs for main vs test)
+     * @param templateDefaultDirs the directories to look for templates in, in order, if the templateDirectory is relative (differs for main vs test)
+     * @param contextDefaultDir   the base directory for loading context files (differs for main vs test)
+     * @param outputDefaultDir    the base directory for putting generated files (differs for main vs test)
      * @return a path to be added as a CompileSourceRoot directory (for compilation), or null if not required
      * @throws MojoExecutionException if anything fails
      */
-    public String executeBase(String contextDefaultDir, String outputDefaultDir) throws MojoExecutionException {
-        final MustacheResolver mustacheResolver = createMustacheResolver();
-        final MustacheFactory  mustacheFactory  = new DefaultMustacheFactory(mustacheResolver);
+    public String executeBase(List<String> templateDefaultDirs, String contextDefaultDir, String outputDefaultDir) throws MojoExecutionException {
+        final BuildMetrics metrics = new BuildMetrics();
 
-        final FileSet          contextFileSet  = initFileSet(contexts, contextDefaultDir);
-        final LoadableEntities contextEntities = extractContextFileList(contextFileSet);
+        final List<TemplateMapping> mappings     = getTemplateMappings();
+        final TemplateRoot          templateRoot = metrics.time(Phase.RESOLVE, () -> createTemplateRoot(mappings.get(0).getTemplate(), templateDefaultDirs));
+        final List<OutputTemplate>  outputs      = metrics.time(Phase.COMPILE, () -> compileTemplates(templateRoot, mappings));
 
-        // read in context files as YAML and perform any field mapping as required. Read in templates ready to use Mustache.
-        final List<LoadedEntityScopes> loadedMappedScopes = loadMappedContexts(contextEntities);
-        getLog().info("outputDir: " + outputDirectory);
+        final FileSet          contextFileSet  = initFileSet(contexts, contextDefaultDir);
+        final LoadableEntities contextEntities = metrics.time(Phase.SCAN, () -> extractContextFileList(contextFileSet));
 
-        if (outputDirectory == null) {
-            outputDirectory = new File(project.getBuild().getDirectory(), outputDefaultDir);
-        }
-        getLog().info("outputDir: " + outputDirectory);
+        final Path outputDirectoryPath = getOutputDirectory(outputDefaultDir);
+        getLog().info("outputDir: " + outputDirectoryPath);
 
-        final Path outputDirectoryPath = outputDirectory.toPath();
         createDirIfRequired(outputDirectoryPath);
 
-        // This is the important bit: iterates the contexts and performs the actual Mustache templating.
-        for (LoadedEntityScopes context : loadedMappedScopes) {
-            try {
-                final Path outputFileFullPath = outputDirectoryPath.resolve(context.getRelativeOutputPath());
-                final Path outputParentDir    = outputFileFullPath.getParent();
-                createDirIfRequired(outputParentDir);
-                final Mustache mustache = mustacheFactory.compile(mainTemplate);
-                getLog().info("Applying context " + context.getRelativePath() + " with template " + mainTemplate + " to " + outputFileFullPath);
-                try (Writer out = Files.newBufferedWriter(outputFileFullPath)) {
-                    mustache.execute(out, context.getScopes());
+        // work out which context files have changed since the last run, as only those need to be loaded and templated
+        final Path                stateFile       = getBuildStateFile();
+        final BuildStateManifest  previousState   = readBuildState(stateFile);
+        final boolean             incrementalRun  = isIncrementalRun();
+        final Map<String, String> fingerprints    = incrementalRun
+                ? metrics.time(Phase.FINGERPRINT, () -> fingerprintSources(contextEntities, outputs, contextFileSet, outputDirectoryPath))
+                : Collections.<String, String>emptyMap();
+        final boolean             includesChanged = incrementalRun && metrics.time(Phase.FINGERPRINT, () -> includesChanged(contextEntities, previousState));
+        final List<String>        changedPaths    = new ArrayList<>();
+        for (String path : contextEntities.getRelativePaths()) {
+            final BuildStateManifest.Entry previous = previousState.get(path);
+            if (includesChanged || previous == null || !previous.isUpToDate(fingerprints.get(path), outputDirectoryPath)) {
+                changedPaths.add(path);
+            }
+        }
+        if (includesChanged) {
+            getLog().info("Included fragment(s) have changed; regenerating all contexts");
+        }
+        if (changedPaths.size() < contextEntities.getRelativePaths().size()) {
+            getLog().info("Skipping " + (contextEntities.getRelativePaths().size() - changedPaths.size()) + " unchanged context(s); "
+                    + changedPaths.size() + " context(s) to generate");
+        }
+
+        // This is the important bit: loads the changed contexts (eg reading YAML and performing any field mapping as required), and performs the actual Mustache templating.
+        final Map<String, List<String>> outputsBySource = new LinkedHashMap<>();
+        final FragmentCache             fragmentCache   = new FragmentCache();
+        changedPaths.forEach(path -> outputsBySource.put(path, new ArrayList<>()));
+        if (!changedPaths.isEmpty()) {
+            final ParsedContextCache parsedContextCache = contextCache ? getParsedContextCache() : null;
+            final LoadableEntities   entitiesToLoad     = contextEntities.withParsedContextCache(parsedContextCache).withFragmentCache(fragmentCache)
+                    .withTimingListener(metrics);
+            final OutputEncoder      outputEncoder      = new OutputEncoder(getOutputCharset(), outputBufferSize);
+            final OutputFileWriter   outputWriter       = new OutputFileWriter(writeIfChanged, outputBufferSize);
+            final int                loadedCount        = generateOutputs(entitiesToLoad, changedPaths, outputs, outputDirectoryPath, outputEncoder, outputWriter, metrics, written -> {
+                for (String sourcePath : written.sourcePaths) {
+                    final List<String> sourceOutputs = outputsBySource.computeIfAbsent(sourcePath, p -> new ArrayList<>());
+                    written.outputPaths.forEach(outputPath -> sourceOutputs.add(outputPath.toString()));
                 }
-            } catch (final IOException e) {
-                throw new MojoExecutionException("Failed to generate output file: " + outputDirectoryPath, e);
+            });
+            getLog().info("Generated " + (outputWriter.getChangedCount() + outputWriter.getUnchangedCount()) + " output file(s) from " + loadedCount + " context(s): "
+                    + outputWriter.getChangedCount() + " changed, " + outputWriter.getUnchangedCount() + " unchanged");
+            if (parsedContextCache != null) {
+                pruneContextCache(parsedContextCache);
             }
         }
 
+        final BuildStateManifest newState = createBuildState(contextEntities, previousState, fingerprints, outputsBySource, outputDirectoryPath);
+        if (incrementalRun) {
+            final boolean regeneratedAll = changedPaths.size() == contextEntities.getRelativePaths().size();
+            metrics.time(Phase.FINGERPRINT, () -> {
+                recordIncludes(contextEntities, regeneratedAll ? null : previousState, fragmentCache, newState);
+                return null;
+            });
+        }
+        if (pruneOutputs) {
+            pruneOrphanedOutputs(previousState, newState, outputDirectoryPath);
+        }
+        writeBuildState(stateFile, newState);
+
+        getLog().info(metrics.summary());
+        if (buildReport) {
+            writeBuildReport(metrics, mappings, contextEntities.getRelativePaths().size(), changedPaths.size());
+        }
+
         if (Boolean.parseBoolean(generateSources) || generateSources == null && fileTypeSuffix.equals(FILE_TYPE_SUFFIX_DEFAULT)) {
             return outputDirectoryPath.toString();
         }
@@ -160,38 +407,636 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
     }
 
     /**
-     * This does the legwork with respect to handling the 'templateDirectory', 'mainTemplate', and the main (and possibly test) 'templateRootDirs'.  The templateRootDirs are only
-     * tried if  templateDirectory appears to be a relative path.
+     * The parsed context cache is kept for the life of the mojo, which for a watch spans many runs.
+     */
+    private synchronized ParsedContextCache getParsedContextCache() {
+        if (parsedContextCache == null) {
+            parsedContextCache = new ParsedContextCache(contextCacheDirectory.toPath(), contextCacheMaxSize, getContextMemoryCacheSize());
+        }
+        return parsedContextCache;
+    }
+
+    /**
+     * @return the total size of parsed contexts to keep in memory between runs (as well as in the on-disk cache); zero, unless the mojo performs more than one run
+     */
+    protected long getContextMemoryCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Determines which of the template and context directories are local directories, which could be watched for changes.
+     *
+     * @param contextDefaultDir the base directory for loading context files (differs for main vs test)
+     * @return the local directories, possibly empty
+     * @throws MojoExecutionException if the templates can't be resolved
+     */
+    List<Path> getLocalInputDirectories(final List<String> templateDefaultDirs, final String contextDefaultDir) throws MojoExecutionException {
+        final List<Path>   dirs         = new ArrayList<>();
+        final TemplateRoot templateRoot = createTemplateRoot(getTemplateMappings().get(0).getTemplate(), templateDefaultDirs);
+        if (templateRoot.getKey().startsWith(FILE_TEMPLATE_ROOT_PREFIX)) {
+            dirs.add(FS.getPath(templateRoot.getKey().substring(FILE_TEMPLATE_ROOT_PREFIX.length())));
+        }
+
+        final String contextDirectory = initFileSet(contexts, contextDefaultDir).getDirectory();
+        Path         contextPath      = null;
+        try {
+            final URI contextUri = new URI(contextDirectory);
+            if (contextUri.getScheme() == null) {
+                contextPath = FS.getPath(contextDirectory);
+            } else if ("file".equals(contextUri.getScheme())) {
+                contextPath = Paths.get(contextUri);
+            }
+        } catch (final URISyntaxException e) {
+            contextPath = FS.getPath(contextDirectory);
+        }
+        if (contextPath != null && Files.isDirectory(contextPath)) {
+            dirs.add(contextPath.toAbsolutePath().normalize());
+        }
+        return dirs;
+    }
+
+    /**
+     * Lists the directories this execution writes to, so that changes to them can be ignored by a watch: the output directory, and the plugin's build state and cache directories.
+     *
+     * @param outputDefaultDir the output directory, relative to the build directory, if none is configured
+     * @return the absolute paths of the directories
+     */
+    List<Path> getGeneratedDirectories(final String outputDefaultDir) {
+        final List<Path> dirs = new ArrayList<>();
+        dirs.add(getOutputDirectory(outputDefaultDir));
+        dirs.add(Paths.get(project.getBuild().getDirectory(), BUILD_STATE_DIR));
+        if (contextCacheDirectory != null) {
+            dirs.add(contextCacheDirectory.toPath());
+        }
+        if (httpCacheDirectory != null) {
+            dirs.add(httpCacheDirectory.toPath());
+        }
+        return dirs.stream().map(p -> p.toAbsolutePath().normalize()).collect(Collectors.toList());
+    }
+
+    private ObjectHandlerType getObjectHandlerType() {
+        try {
+            return ObjectHandlerType.fromName(objectHandler);
+        } catch (final IllegalArgumentException e) {
+            throw new TemplatingMojoFailureException(e.getMessage(), e);
+        }
+    }
+
+    private Charset getOutputCharset() throws MojoExecutionException {
+        try {
+            return Charset.forName(outputEncoding);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new MojoExecutionException("Unsupported outputEncoding: " + outputEncoding, e);
+        }
+    }
+
+    /**
+     * Determines the templates to apply, from the 'mainTemplate' and 'templates' parameters.
+     *
+     * @return the template mappings, never empty
+     * @throws MojoExecutionException if no templates are configured, or a mapping is invalid
+     */
+    private List<TemplateMapping> getTemplateMappings() throws MojoExecutionException {
+        final List<TemplateMapping> mappings = new ArrayList<>();
+        if (mainTemplate != null && !mainTemplate.isEmpty()) {
+            mappings.add(new TemplateMapping(mainTemplate, TemplateMapping.DEFAULT_OUTPUT_PATTERN));
+        }
+        if (templates != null) {
+            mappings.addAll(templates);
+        }
+        if (mappings.isEmpty()) {
+            throw new MojoExecutionException("No template configured: set 'mainTemplate' or 'templates'");
+        }
+        try {
+            mappings.forEach(TemplateMapping::validate);
+        } catch (final IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        return mappings;
+    }
+
+    private List<OutputTemplate> compileTemplates(final TemplateRoot templateRoot, final List<TemplateMapping> mappings) {
+        final List<OutputTemplate> outputs = new ArrayList<>();
+        for (TemplateMapping mapping : mappings) {
+            outputs.add(new OutputTemplate(mapping, compileTemplate(templateRoot, mapping.getTemplate())));
+        }
+        return outputs;
+    }
+
+    /**
+     * Compiles the named template, reusing the compiled form from earlier executions in this build session if neither it nor its partials has changed since.
+     *
+     * @param templateRoot the root to resolve the template from
+     * @param templateName the template's name
+     * @return the compiled template
+     */
+    private CompiledTemplate compileTemplate(final TemplateRoot templateRoot, final String templateName) {
+        final CompiledTemplateCache templateCache = BuildSessionScope.get(session, CompiledTemplateCache.class, CompiledTemplateCache::new);
+        final CompiledTemplate      template      = templateCache.get(templateRoot, templateName, getObjectHandlerType());
+        getLog().debug("Template " + templateName + " from " + templateRoot + " uses resources: " + template.getResourceDigests().keySet());
+        return template;
+    }
+
+    /**
+     * @return true if incremental generation is enabled; see {@link #incremental}
+     */
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return true if only changed context files should be regenerated, ie incremental generation is enabled, and the context files aren't all loaded together
+     */
+    private boolean isIncrementalRun() {
+        if (isIncremental() && loadBatchSize <= 0) {
+            getLog().info("Regenerating all contexts, as incremental generation isn't possible with loadBatchSize " + loadBatchSize);
+            return false;
+        }
+        return isIncremental();
+    }
+
+    /**
+     * Calculates a fingerprint for each context source, covering everything that affects its outputs: the source's content, the templates and all the partials they pulled in, the
+     * context loader and the relevant plugin configuration. Sources which can't be read have no fingerprint, so they are always loaded (and the loader reports the problem).
+     *
+     * @param contextEntities the context sources
+     * @param outputs         the compiled templates
+     * @param contextFileSet      the context fileset configuration
+     * @param outputDirectoryPath the directory the outputs are written to
+     * @return the fingerprint of each readable source, keyed by relative path
+     */
+    private Map<String, String> fingerprintSources(final LoadableEntities contextEntities, final List<OutputTemplate> outputs, final FileSet contextFileSet,
+            final Path outputDirectoryPath) {
+        final StringBuilder templateStamps = new StringBuilder();
+        for (OutputTemplate output : outputs) {
+            templateStamps.append(output.template.getName()).append('@').append(output.template.getDigest()).append("->").append(output.mapping.getOutputPattern()).append(';');
+        }
+        final String configFingerprint = Digests.digest(String.join("\n",
+                "plugin=" + (mojoExecution != null ? mojoExecution.getMojoDescriptor().getPluginDescriptor().getVersion() : ""),
+                "templates=" + templateStamps,
+                "contextLoader=" + contextLoaderClass + "@" + contextLoaderStamp(),
+                "contextLoaderProperties=" + new TreeMap<>(getContextLoaderProperties()),
+                "contexts=" + contextFileSet.getDirectory(),
+                "fileTypeSuffix=" + fileTypeSuffix,
+                "outputEncoding=" + outputEncoding,
+                "objectHandler=" + objectHandler,
+                "outputDirectory=" + outputDirectoryPath.toAbsolutePath()));
+
+        final Map<String, String> fingerprints = new HashMap<>();
+        for (String path : contextEntities.getRelativePaths()) {
+            try {
+                // read local (and archived) files directly, rather than opening them again through their URLs
+                final String contentDigest = digestContent(contextEntities.new LoadableEntity(path));
+                if (contentDigest != null) {
+                    fingerprints.put(path, Digests.digest(configFingerprint + "\n" + contentDigest));
+                }
+            } catch (final IOException e) {
+                getLog().debug("Cannot fingerprint context " + path + ": " + e);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Digests a source's (or fragment's) content, reading local (and archived) files directly, rather than opening them again through their URLs.
+     *
+     * @param entity the source
+     * @return the digest, or null if it has no URL (eg a missing classpath resource)
+     * @throws IOException if the content can't be read
+     */
+    private static String digestContent(final LoadableEntities.LoadableEntity entity) throws IOException {
+        final Path localPath = entity.getLocalPath();
+        if (localPath != null) {
+            return Digests.digest(localPath);
+        }
+        final URL sourceUrl = entity.getFullPathAsUrl();
+        return sourceUrl != null ? Digests.digest(sourceUrl) : null;
+    }
+
+    /**
+     * Determines whether any fragment which the contexts included last time has changed (or gone) since. As any context might include any fragment, they must all be regenerated
+     * if so.
+     *
+     * @param contextEntities the context sources, which the fragment paths are relative to the root of
+     * @param previousState   the state recorded by the previous run
+     * @return true if any included fragment has changed
+     */
+    private boolean includesChanged(final LoadableEntities contextEntities, final BuildStateManifest previousState) {
+        for (Map.Entry<String, String> include : previousState.getIncludes().entrySet()) {
+            try {
+                if (!include.getValue().equals(digestContent(contextEntities.new LoadableEntity(include.getKey())))) {
+                    return true;
+                }
+            } catch (final IOException e) {
+                getLog().debug("Cannot fingerprint included fragment " + include.getKey() + ": " + e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the digests of the fragments which the contexts included, for {@link #includesChanged} to check next time. Those loaded by this run are in the fragment cache, but
+     * unless every context was regenerated, the unchanged ones may have included others, so the previous run's are kept too.
+     *
+     * @param contextEntities the context sources, which the fragment paths are relative to the root of
+     * @param previousState   the state recorded by the previous run, or null if every context was regenerated
+     * @param fragmentCache   the fragments included by this run
+     * @param newState        the state of this run, to record the fragments in
+     */
+    private void recordIncludes(final LoadableEntities contextEntities, final BuildStateManifest previousState, final FragmentCache fragmentCache,
+            final BuildStateManifest newState) {
+        final Set<String> fragmentPaths = new TreeSet<>(fragmentCache.getRelativePaths());
+        if (previousState != null) {
+            fragmentPaths.addAll(previousState.getIncludes().keySet());
+        }
+        for (String path : fragmentPaths) {
+            String digest;
+            try {
+                digest = digestContent(contextEntities.new LoadableEntity(path));
+            } catch (final IOException e) {
+                digest = null;
+            }
+            newState.putInclude(path, digest != null ? digest : BuildStateManifest.NO_FINGERPRINT);
+        }
+    }
+
+    /**
+     * Identifies the version of the context loader's code, so that rebuilding a context loader (eg in the same reactor) invalidates previously generated outputs.
+     *
+     * @return a string which changes if the loader's class file changes
+     */
+    private String contextLoaderStamp() {
+        try {
+            final Class<?> loaderClass = Class.forName(contextLoaderClass);
+            final URL      classFile   = loaderClass.getResource(loaderClass.getSimpleName() + ".class");
+            return classFile == null ? "" : classFile + "@" + classFile.openConnection().getLastModified();
+        } catch (final ClassNotFoundException | IOException e) {
+            return "";
+        }
+    }
+
+    private BuildStateManifest createBuildState(final LoadableEntities contextEntities, final BuildStateManifest previousState, final Map<String, String> fingerprints,
+            final Map<String, List<String>> outputsBySource, final Path outputDirectoryPath) {
+        final BuildStateManifest newState = new BuildStateManifest(outputDirectoryPath.toAbsolutePath().toString());
+        for (String path : contextEntities.getRelativePaths()) {
+            if (!outputsBySource.containsKey(path)) {
+                newState.put(path, previousState.get(path));
+            }
+        }
+        outputsBySource.forEach((path, outputs) -> newState.put(path, fingerprints.getOrDefault(path, BuildStateManifest.NO_FINGERPRINT), outputs));
+        return newState;
+    }
+
+    /**
+     * Deletes the outputs recorded in the previous state which aren't in the new one, and then any of their parent directories which have been left empty (up to the output
+     * directory). Nothing is deleted unless the previous state was for the same output directory, so files this execution didn't generate are left alone. Failure to delete is
+     * only a warning, as the build's own outputs are all in place.
+     *
+     * @param previousState       the state recorded by the previous run
+     * @param newState            the state of this run
+     * @param outputDirectoryPath the output directory
+     */
+    private void pruneOrphanedOutputs(final BuildStateManifest previousState, final BuildStateManifest newState, final Path outputDirectoryPath) {
+        final Path outputRoot = outputDirectoryPath.toAbsolutePath().normalize();
+        int        deleted    = 0;
+        for (String orphan : previousState.getOrphanedOutputs(newState)) {
+            final Path file = outputRoot.resolve(orphan).normalize();
+            if (!file.startsWith(outputRoot) || file.equals(outputRoot)) {
+                continue;
+            }
+            try {
+                if (Files.deleteIfExists(file)) {
+                    deleted++;
+                    getLog().debug("Deleted orphaned output: " + file);
+                }
+                for (Path dir = file.getParent(); !dir.equals(outputRoot) && isEmptyDirectory(dir); dir = dir.getParent()) {
+                    Files.delete(dir);
+                }
+            } catch (final IOException e) {
+                getLog().warn("Cannot delete orphaned output: " + file, e);
+            }
+        }
+        if (deleted > 0) {
+            getLog().info("Deleted " + deleted + " orphaned output file(s)");
+        }
+    }
+
+    private static boolean isEmptyDirectory(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            return !entries.iterator().hasNext();
+        }
+    }
+
+    private void pruneContextCache(final ParsedContextCache parsedContextCache) {
+        try {
+            final int evicted = parsedContextCache.prune();
+            getLog().debug("Context cache: " + parsedContextCache.getHitCount() + " hit(s), " + parsedContextCache.getMissCount() + " miss(es), " + evicted + " evicted");
+        } catch (final IOException e) {
+            getLog().warn("Cannot prune context cache: " + contextCacheDirectory, e);
+        }
+    }
+
+    private String getExecutionName() {
+        return getExecutionName(mojoExecution != null ? mojoExecution.getGoal() : null);
+    }
+
+    private String getExecutionName(final String goal) {
+        return mojoExecution != null ? goal + "-" + mojoExecution.getExecutionId() : "default";
+    }
+
+    /**
+     * Names the goal whose build state this execution records, which is normally its own. A goal which generates the same outputs as another (eg "watch" for "transform") can
+     * share its state instead, so each knows what the other has generated.
+     *
+     * @return the goal name
+     */
+    protected String getBuildStateGoal() {
+        return mojoExecution != null ? mojoExecution.getGoal() : null;
+    }
+
+    private Path getBuildStateFile() {
+        return getExecutionFile(getExecutionName(getBuildStateGoal()), ".state");
+    }
+
+    /**
+     * @param executionName the name of the execution
+     * @param suffix        the file suffix
+     * @return a file in the plugin's directory under the build directory, named for the execution
+     */
+    private Path getExecutionFile(final String executionName, final String suffix) {
+        return Paths.get(project.getBuild().getDirectory(), BUILD_STATE_DIR, executionName.replaceAll("[^A-Za-z0-9._-]", "_") + suffix);
+    }
+
+    private void writeBuildReport(final BuildMetrics metrics, final List<TemplateMapping> mappings, final int contextCount, final int generatedCount) {
+        final Map<String, Object> header = new LinkedHashMap<>();
+        header.put("execution", getExecutionName());
+        header.put("template", mappings.stream().map(TemplateMapping::getTemplate).collect(Collectors.joining(",")));
+        header.put("contexts", contextCount);
+        header.put("generated", generatedCount);
+        header.put("skipped", contextCount - generatedCount);
+
+        final Path reportFile = getExecutionFile(getExecutionName(), "-report.json");
+        try {
+            Files.createDirectories(reportFile.getParent());
+            OutputFileWriter.writeAtomically(reportFile, metrics.toJson(header).getBytes(UTF_8));
+            getLog().debug("Build report written to: " + reportFile);
+        } catch (final IOException e) {
+            getLog().warn("Cannot write build report: " + reportFile, e);
+        }
+    }
+
+    private BuildStateManifest readBuildState(final Path stateFile) {
+        try {
+            return BuildStateManifest.read(stateFile);
+        } catch (final IOException e) {
+            getLog().warn("Cannot read build state, so regenerating everything: " + stateFile, e);
+            return new BuildStateManifest(null);
+        }
+    }
+
+    private void writeBuildState(final Path stateFile, final BuildStateManifest state) {
+        try {
+            state.write(stateFile);
+        } catch (final IOException e) {
+            getLog().warn("Cannot write build state, so the next build will regenerate everything: " + stateFile, e);
+        }
+    }
+
+    /**
+     * Loads the context files, applies the templates to each resulting context, and writes the output files. This is done by a {@link RenderPipeline}, so that loading, rendering
+     * and writing all overlap, and only a bounded number of contexts is in memory at once.
+     *
+     * @param contextEntities     the context files
+     * @param paths               the relative paths of the context files to load
+     * @param outputs             the compiled templates, with their output naming
+     * @param outputDirectoryPath the directory that output paths are relative to
+     * @param outputEncoder       the encoder to render the output files with
+     * @param outputWriter        the writer for the output files
+     * @param metrics             collects the timings of the load, render and write phases
+     * @param completionHandler   called (on this thread, in context order) for each context once its outputs have been written
+     * @return the number of contexts generated
+     * @throws MojoExecutionException if anything fails to load, render or write
+     */
+    private int generateOutputs(final LoadableEntities contextEntities, final List<String> paths, final List<OutputTemplate> outputs, final Path outputDirectoryPath,
+            final OutputEncoder outputEncoder, final OutputFileWriter outputWriter, final BuildMetrics metrics, final Consumer<WrittenContext> completionHandler)
+            throws MojoExecutionException {
+        final int batchSize = loadBatchSize > 0 ? loadBatchSize : paths.size();
+
+        final List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i += batchSize) {
+            batches.add(paths.subList(i, Math.min(i + batchSize, paths.size())));
+        }
+
+        // reusable loaders are kept for the session if there is one; otherwise, they're closed along with this execution's cache
+        final boolean            sessionScoped = BuildSessionScope.isAvailable(session);
+        final ContextLoaderCache loaderCache   = sessionScoped
+                ? BuildSessionScope.get(session, ContextLoaderCache.class, this::createSessionLoaderCache)
+                : new ContextLoaderCache(getLog());
+        try (ContextLoaderCache.Lease lease = loaderCache.lease(contextLoaderClass, getContextLoaderProperties())) {
+            return runPipeline(contextEntities, paths, batches, lease, outputs, outputDirectoryPath, outputEncoder, outputWriter, metrics, completionHandler);
+        } finally {
+            if (!sessionScoped) {
+                loaderCache.close();
+            }
+        }
+    }
+
+    private ContextLoaderCache createSessionLoaderCache() {
+        final ContextLoaderCache loaderCache = new ContextLoaderCache(getLog());
+        BuildSessionScope.closeAtSessionEnd(session, loaderCache);
+        return loaderCache;
+    }
+
+    private Map<String, String> getContextLoaderProperties() {
+        return contextLoaderProperties != null ? contextLoaderProperties : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Runs the pipeline for {@link #generateOutputs}, with loaders taken from the lease.
+     */
+    private int runPipeline(final LoadableEntities contextEntities, final List<String> paths, final List<List<String>> batches, final ContextLoaderCache.Lease lease,
+            final List<OutputTemplate> outputs, final Path outputDirectoryPath, final OutputEncoder outputEncoder, final OutputFileWriter outputWriter, final BuildMetrics metrics,
+            final Consumer<WrittenContext> completionHandler) throws MojoExecutionException {
+        // context loaders needn't be thread-safe, so unless the loader says otherwise, each load thread gets its own
+        final TemplatingPluginContextLoader  firstLoader = lease.take();
+        final LoadableEntities               entities    = contextEntities.withParallelLoading(firstLoader.isThreadSafe());
+        final List<RenderPipeline.LoadStage> loaders     = new ArrayList<>();
+        for (int i = 0, n = Math.min(Math.max(loadThreads, 1), batches.size()); i < n; i++) {
+            final TemplatingPluginContextLoader contextLoader = i == 0 || firstLoader.isThreadSafe() ? firstLoader : lease.take();
+            loaders.add((batch, sink) -> loadBatch(contextLoader, entities.withRelativePaths(batch), sink, metrics));
+        }
+        final int threadsRender = threadCount(renderThreads);
+        final int threadsWrite  = threadCount(writeThreads);
+        getLog().debug("Generating from " + paths.size() + " context file(s) in " + batches.size() + " batch(es), with " + loaders.size() + " load, "
+                + threadsRender + " render and " + threadsWrite + " write thread(s)");
+
+        // contexts are written in parallel, so two writing the same file would leave an arbitrary one of them: the serial result was the last, but it's surely a mistake anyway
+        final ConcurrentMap<Path, String> claimedOutputs = new ConcurrentHashMap<>();
+        final List<Set<String>>           batchSources   = new ArrayList<>(batches.size());
+        batches.forEach(batch -> batchSources.add(batch.size() == 1 ? Collections.singleton(batch.get(0)) : new HashSet<>(batch)));
+        final AtomicInteger count = new AtomicInteger();
+        new RenderPipeline<List<RenderedOutput>, WrittenContext>(threadsRender, threadsWrite, Math.max(pipelineQueueSize, 1)).run(batches, loaders,
+                context -> {
+                    final BuildMetrics.Sample  start    = metrics.start();
+                    final List<RenderedOutput> rendered = renderOutputs(outputs, outputEncoder, context, claimedOutputs);
+                    metrics.stop(Phase.RENDER, start, rendered.size(), rendered.stream().mapToLong(r -> r.content.length).sum());
+                    return rendered;
+                },
+                (batch, context, rendered) -> {
+                    final BuildMetrics.Sample start        = metrics.start();
+                    final List<Path>          outputPaths  = new ArrayList<>(rendered.size());
+                    long                      bytesWritten = 0;
+                    for (RenderedOutput output : rendered) {
+                        if (writeOutput(outputDirectoryPath.resolve(output.relativePath), output.content, outputWriter)) {
+                            bytesWritten += output.content.length;
+                        }
+                        outputPaths.add(output.relativePath);
+                    }
+                    metrics.stop(Phase.WRITE, start, rendered.size(), bytesWritten);
+                    // just what's needed to report it, so the context itself needn't be kept until then
+                    return new WrittenContext(context.getRelativePath(), sourcesOf(context, batches.get(batch), batchSources.get(batch)), outputPaths);
+                },
+                written -> {
+                    for (int i = 0; i < outputs.size(); i++) {
+                        logApplyingContext(written, i, outputs.get(i), outputDirectoryPath);
+                    }
+                    completionHandler.accept(written);
+                    count.incrementAndGet();
+                });
+        return count.get();
+    }
+
+    /**
+     * Loads a batch by consuming the loader's stream lazily, so each context is passed on (and may be rendered, written and garbage-collected) before the next is produced. Only
+     * the time spent producing the contexts counts as loading, not that spent waiting for the render stage to accept them.
+     */
+    private static void loadBatch(final TemplatingPluginContextLoader contextLoader, final LoadableEntities batch, final RenderPipeline.ContextSink sink,
+            final BuildMetrics metrics) throws MojoExecutionException, InterruptedException {
+        BuildMetrics.Sample start = metrics.start();
+        try (Stream<LoadedEntityScopes> stream = contextLoader.loadAndStream(batch)) {
+            final Iterator<LoadedEntityScopes> contexts = stream.iterator();
+            while (contexts.hasNext()) {
+                final LoadedEntityScopes context = contexts.next();
+                metrics.stop(Phase.LOAD, start, 1, 0);
+                if (!sink.accept(context)) {
+                    return;
+                }
+                start = metrics.start();
+            }
+            metrics.stop(Phase.LOAD, start, 0, 0);
+        } catch (final RuntimeException e) {
+            throw new MojoExecutionException("Failed to load context file(s) " + batch.getRelativePaths() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Determines which context file(s) a context was generated from, for recording its outputs in the build state. It's normally named after its own file, but a loader may name
+     * it otherwise (eg combining several files), and then it can only be attributed to its whole batch.
+     */
+    private static List<String> sourcesOf(final LoadedEntityScopes context, final List<String> batch, final Set<String> batchSources) {
+        return batchSources.contains(context.getRelativePath()) ? Collections.singletonList(context.getRelativePath()) : batch;
+    }
+
+    private static int threadCount(final int configuredThreads) {
+        return configuredThreads > 0 ? configuredThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private void logApplyingContext(final WrittenContext written, final int outputIndex, final OutputTemplate output, final Path outputDirectoryPath) {
+        getLog().debug("Applying context " + written.relativePath + " with template " + output.mapping.getTemplate() + " to "
+                + outputDirectoryPath.resolve(written.outputPaths.get(outputIndex)));
+    }
+
+    /**
+     * Renders a context with each of the templates.
+     *
+     * @param outputs        the compiled templates, with their output naming
+     * @param outputEncoder  the encoder to render with
+     * @param context        the context
+     * @param claimedOutputs the output files of all the contexts rendered so far, mapped to the context which generates each; this context's are added
+     * @return the rendered outputs, one per template
+     * @throws MojoExecutionException if rendering fails, or two templates (or contexts) would write the same output file
+     */
+    private static List<RenderedOutput> renderOutputs(final List<OutputTemplate> outputs, final OutputEncoder outputEncoder, final LoadedEntityScopes context,
+            final ConcurrentMap<Path, String> claimedOutputs) throws MojoExecutionException {
+        final List<RenderedOutput> rendered = new ArrayList<>(outputs.size());
+        final Map<Path, String>    seen     = new HashMap<>();
+        for (OutputTemplate output : outputs) {
+            final Path   relativePath = output.outputPathFor(context);
+            final String previous     = seen.put(relativePath, output.mapping.getTemplate());
+            if (previous != null) {
+                throw new MojoExecutionException("Templates " + previous + " and " + output.mapping.getTemplate() + " both generate output file " + relativePath
+                        + " for context " + context.getRelativePath() + " - check their outputPatterns");
+            }
+            final String owner = claimedOutputs.putIfAbsent(relativePath, context.getRelativePath());
+            if (owner != null) {
+                throw new MojoExecutionException("Contexts " + owner + " and " + context.getRelativePath() + " both generate output file " + relativePath
+                        + " - check the outputPatterns, or the context loader's naming");
+            }
+            rendered.add(new RenderedOutput(relativePath, renderContext(outputEncoder, output.template.getMustache(), context)));
+        }
+        return rendered;
+    }
+
+    static byte[] renderContext(final OutputEncoder outputEncoder, final Mustache mustache, final LoadedEntityScopes context) throws MojoExecutionException {
+        try {
+            return outputEncoder.render(mustache, context.getScopes());
+        } catch (final RuntimeException e) {
+            throw new MojoExecutionException("Failed to apply template to context " + context.getRelativePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private boolean writeOutput(final Path outputFileFullPath, final byte[] content, final OutputFileWriter outputWriter) throws MojoExecutionException {
+        try {
+            createDirIfRequired(outputFileFullPath.getParent());
+            return outputWriter.write(outputFileFullPath, content);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Failed to generate output file: " + outputFileFullPath, e);
+        }
+    }
+
+    /**
+     * This does the legwork with respect to handling the 'templateDirectory', 'mainTemplate', and the main (and possibly test) default template directories.  The default
+     * directories are only tried if  templateDirectory appears to be a relative path.
      * <p>
      * If treating them as files doesn't work, it tries them as a URL. If there's a scheme called "classpath", then the URL path is tried as a Classpath, reading from the
      * default/configured resources root.
      *
-     * @return a valid template resolver, never null
+     * @param templateName        the template used to locate the template root
+     * @param templateDefaultDirs the default template directories, relative to the project's basedir
+     * @return a valid template root, never null
      */
-    private MustacheResolver createMustacheResolver() {
-        final String messagePrefix = "Main Template resolution for \"" + mainTemplate + "\": ";
+    private TemplateRoot createTemplateRoot(final String templateName, final List<String> templateDefaultDirs) {
+        final String messagePrefix = "Main Template resolution for \"" + templateName + "\": ";
 
-        MustacheResolver mustacheResolver = null;
+        TemplateRoot templateRoot = null;
         try {
+            final ArchiveFileSystems.Location archiveLocation = templateDirectory != null && !templateDirectory.isEmpty() ? parseArchiveLocation(templateDirectory) : null;
+            if (archiveLocation != null) {
+                return createArchiveResolver(archiveLocation, templateName);
+            }
             if (templateDirectory == null || templateDirectory.isEmpty()
                     || new File(templateDirectory).isAbsolute()
                     || new URI(templateDirectory).getScheme() == null) {
                 if (templateDirectory != null && !templateDirectory.isEmpty()) {
-                    mustacheResolver = createFileResolver(FS.getPath(templateDirectory));
+                    templateRoot = createFileResolver(FS.getPath(templateDirectory), templateName);
                 }
-                if (mustacheResolver == null) {
-                    for (String defaultDir : templateRootDirs) {
+                if (templateRoot == null) {
+                    for (String defaultDir : templateDefaultDirs) {
                         final Path resolvedDir = project.getBasedir().toPath().resolve(defaultDir);
-                        mustacheResolver = createFileResolver(resolvedDir);
-                        if (mustacheResolver != null) {
+                        templateRoot = createFileResolver(resolvedDir, templateName);
+                        if (templateRoot != null) {
                             break;
                         }
                     }
                 }
-                if (mustacheResolver == null) {
-                    throw new TemplatingMojoFailureException("Cannot locate template: " + mainTemplate);
+                if (templateRoot == null) {
+                    throw new TemplatingMojoFailureException("Cannot locate template: " + templateName);
                 }
-                return mustacheResolver;
+                return templateRoot;
             }
 
             final URI dirUri = new URI(templateDirectory);
@@ -199,17 +1044,37 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
                 final String path         = dirUri.getPath();
                 final String resourceRoot = path.startsWith("/") ? path.substring(1) : path;
                 getLog().debug(messagePrefix + ": use ClasspathResolver with resourceRoot: " + resourceRoot);
-                return new ClasspathResolver(resourceRoot);
+                return new TemplateRoot("classpath:" + resourceRoot, new ClasspathResolver(resourceRoot));
+            } else if (HttpCache.isCacheable(dirUri)) {
+                final URI rootUri = dirUri.getPath().endsWith("/") ? dirUri : new URI(dirUri + "/");
+                getLog().debug(messagePrefix + ": use UrlTemplateResolver with root: " + rootUri + (httpCache ? ", cached" : ""));
+                return new TemplateRoot("url:" + rootUri, new UrlTemplateResolver(rootUri, getRemoteFileCache()));
             } else {
                 getLog().debug(messagePrefix + ": use DefaultResolver with resourceRoot: " + dirUri.getPath());
-                return new DefaultResolver(dirUri.getPath());
+                return new TemplateRoot("default:" + dirUri.getPath(), new DefaultResolver(dirUri.getPath()));
             }
         } catch (URISyntaxException e1) {
-            throw new TemplatingMojoFailureException("Bad URI: " + mainTemplate, e1);
+            throw new TemplatingMojoFailureException("Bad URI: " + templateName, e1);
         }
     }
 
-    private MustacheResolver createFileResolver(Path templateRootCandidate) {
+    private TemplateRoot createArchiveResolver(final ArchiveFileSystems.Location location, final String templateName) {
+        final ArchiveFileSystems.Archive archive;
+        try {
+            archive = openArchive(location.getArchivePath());
+        } catch (final IOException e) {
+            throw new TemplatingMojoFailureException("Cannot open template archive " + location + ": " + e, e);
+        }
+        final Path templateDir = archive.getDirectory(location.getDirectory());
+        if (!Files.isRegularFile(templateDir.resolve(templateName))) {
+            throw new TemplatingMojoFailureException("Cannot locate template: " + templateName + " in archive " + location);
+        }
+        getLog().info("Template found in archive: " + location);
+        // the key identifies the version of the archive, so templates compiled from an earlier version aren't reused
+        return new TemplateRoot("archive:" + archive.getKey() + "!/" + location.getDirectory(), new FileSystemResolver(templateDir));
+    }
+
+    private TemplateRoot createFileResolver(Path templateRootCandidate, String templateName) {
         if (!Files.isDirectory(templateRootCandidate)) {
             getLog().debug("  checked possible base dir (doesn't exist): " + templateRootCandidate);
             return null;
@@ -219,7 +1084,7 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
             getLog().debug("  checked possible template root dir (doesn't exist): " + templateRootCandidate);
             return null;
         }
-        final Path mainTemplateFullPath = templateRootCandidate.resolve(mainTemplate);
+        final Path mainTemplateFullPath = templateRootCandidate.resolve(templateName);
 
         if (!Files.isRegularFile(mainTemplateFullPath)) {
             getLog().debug("  possible template root dir exists: " + templateRootCandidate);
@@ -227,7 +1092,7 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
             return null;
         }
         getLog().info("Template found in dir: " + templateRootCandidate);
-        return new FileSystemResolver(resolvedTemplateDir.toFile());
+        return new TemplateRoot(FILE_TEMPLATE_ROOT_PREFIX + resolvedTemplateDir.toAbsolutePath().normalize(), new FileSystemResolver(resolvedTemplateDir.toFile()));
     }
 
     private void createDirIfRequired(final Path outputDirectoryPath) throws MojoExecutionException {
@@ -242,14 +1107,31 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
     }
 
     /**
-     * Ensures we have a FileSet with a 'directory' configured, using the supplied default if not already set.
+     * @param outputDefaultDir the output directory to use if none is configured, relative to the project's build directory
+     * @return the directory to write the outputs to
+     */
+    Path getOutputDirectory(final String outputDefaultDir) {
+        return outputDirectory != null ? outputDirectory.toPath() : Paths.get(project.getBuild().getDirectory(), outputDefaultDir);
+    }
+
+    /**
+     * Ensures we have a FileSet with a 'directory' configured, using the supplied default if not already set. The configured FileSet is copied rather than updated, so the mojo's
+     * configuration is never modified.
      *
-     * @param fs         a fileset to update, or null (in which case a new empty FileSet is created)
+     * @param fs         the configured fileset, or null (in which case a new empty FileSet is created)
      * @param defaultDir the directory to use, if FileSet doesn't already have one; this is resolved relative to the project's basedir
      * @return a FileSet with a configured directory
      */
     private FileSet initFileSet(final FileSet fs, final String defaultDir) {
-        final FileSet fileSet = fs != null ? fs : new FileSet();
+        final FileSet fileSet = new FileSet();
+        if (fs != null) {
+            fileSet.setDirectory(fs.getDirectory());
+            fileSet.setIncludes(new ArrayList<>(fs.getIncludes()));
+            fileSet.setExcludes(new ArrayList<>(fs.getExcludes()));
+            fileSet.setUseDefaultExcludes(fs.isUseDefaultExcludes());
+            fileSet.setFollowSymlinks(fs.isFollowSymlinks());
+            fileSet.setMapper(fs.getMapper());
+        }
 
         if (fileSet.getDirectory() == null) {
             final Path dirToSet = project.getBasedir().toPath().resolve(defaultDir);
@@ -259,11 +1141,22 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
     }
 
     private LoadableEntities extractContextFileList(final FileSet fileSet) throws MojoExecutionException {
-        final String directoryString = fileSet.getDirectory();
+        final String                      directoryString = fileSet.getDirectory();
+        final ArchiveFileSystems.Location archiveLocation = parseArchiveLocation(directoryString);
+        if (archiveLocation != null) {
+            getLog().debug("Context: directory is in an archive: " + archiveLocation);
+            return matchArchiveContexts(archiveLocation, fileSet);
+        }
         try {
             URI rootUri = new URI(directoryString);
             if (rootUri.getScheme() != null) {
                 getLog().debug("Context: directory is valid URI, so assuming using limited 'includes' paths: " + directoryString);
+                if (HttpCache.isCacheable(rootUri) && getRemoteFileCache() != null) {
+                    return fetchRemoteContexts(rootUri, fileSet.getIncludes());
+                }
+                if ("classpath".equals(rootUri.getScheme()) && usesPatterns(fileSet)) {
+                    return matchClasspathContexts(rootUri, fileSet);
+                }
                 return new LoadableEntities(rootUri, fileSet.getIncludes(), fileTypeSuffix, FS);
             }
         } catch (URISyntaxException e) {
@@ -286,7 +1179,7 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
         getLog().debug("    Context: fileSet.getDirectory: " + rootPath + "; rootUri: " + rootUri);
 
         final FileSetManager fileSetManager = new FileSetManager();
-        final List<String>   files          = stream(fileSetManager.getIncludedFiles(fileSet)).collect(Collectors.toList());
+        final List<String>   files          = stream(fileSetManager.getIncludedFiles(fileSet)).sorted().collect(Collectors.toList());
 
         if (failIfNoFiles && files.isEmpty()) {
             throw new MojoExecutionException("No matching Context files found in: " + rootPath);
@@ -298,14 +1191,160 @@ abstract class TemplatingBaseMojo extends AbstractMojo {
         return new LoadableEntities(rootUri, files, fileTypeSuffix, rootPath.getFileSystem());
     }
 
-    private List<LoadedEntityScopes> loadMappedContexts(LoadableEntities contextEntities) throws MojoExecutionException {
-        final TemplatingPluginContextLoader contextLoader;
+    private static boolean usesPatterns(final FileSet fileSet) {
+        return !fileSet.getExcludes().isEmpty() || fileSet.getIncludes().stream().anyMatch(include -> include.contains("*") || include.contains("?") || include.endsWith("/"));
+    }
+
+    /**
+     * Matches a fileset's include and exclude patterns against the resources under a 'classpath:' directory, using the session's {@link ClasspathResourceIndex}.
+     *
+     * @param rootUri the classpath directory
+     * @param fileSet the fileset, with its patterns
+     * @return the matching context files
+     * @throws MojoExecutionException if there are none, and that's not allowed
+     */
+    private LoadableEntities matchClasspathContexts(final URI rootUri, final FileSet fileSet) throws MojoExecutionException {
+        final ClasspathResourceIndex index = BuildSessionScope.get(session, ClasspathResourceIndex.class,
+                () -> new ClasspathResourceIndex(TemplatingBaseMojo.class.getClassLoader()));
+        final String       root  = rootUri.getPath().startsWith("/") ? rootUri.getPath().substring(1) : rootUri.getPath();
+        final List<String> files = index.match(root, fileSet.getIncludes(), fileSet.getExcludes(), fileSet.isUseDefaultExcludes());
+
+        if (failIfNoFiles && files.isEmpty()) {
+            throw new MojoExecutionException("No matching Context files found in: " + rootUri);
+        }
+        getLog().debug("    #files = " + files.size());
+        files.forEach(f -> getLog().debug("    " + f));
+
+        return new LoadableEntities(rootUri, files, fileTypeSuffix, FS);
+    }
+
+    /**
+     * Matches a fileset's include and exclude patterns against the files under a directory in a zip or jar archive, which is read in place, through the session's
+     * {@link ArchiveFileSystems}.
+     *
+     * @param location the archive, and the directory within it
+     * @param fileSet  the fileset, with its patterns
+     * @return the matching context files, rooted in the open archive
+     * @throws MojoExecutionException if the archive can't be read, or there are no matching files and that's not allowed
+     */
+    private LoadableEntities matchArchiveContexts(final ArchiveFileSystems.Location location, final FileSet fileSet) throws MojoExecutionException {
+        final Path         root;
+        final List<String> files;
         try {
-            contextLoader = (TemplatingPluginContextLoader) Class.forName(contextLoaderClass).getDeclaredConstructor().newInstance();
-        } catch (final Exception e) {
-            throw new MojoExecutionException("Cannot load class '" + contextLoaderClass + "'", e);
+            root = openArchive(location.getArchivePath()).getDirectory(location.getDirectory());
+            files = FileSetPatterns.select(ArchiveFileSystems.listFiles(root), fileSet.getIncludes(), fileSet.getExcludes(), fileSet.isUseDefaultExcludes());
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Cannot read contexts from archive " + location + ": " + e, e);
+        }
+
+        if (failIfNoFiles && files.isEmpty()) {
+            throw new MojoExecutionException("No matching Context files found in: " + location);
+        }
+        getLog().debug("    #files = " + files.size());
+        files.forEach(f -> getLog().debug("    " + f));
+
+        return new LoadableEntities(root, files, fileTypeSuffix, FS);
+    }
+
+    /**
+     * @param location a configured template or context directory
+     * @return the archive and directory within it, or null if the location isn't in an archive
+     */
+    private ArchiveFileSystems.Location parseArchiveLocation(final String location) {
+        try {
+            return ArchiveFileSystems.Location.parse(location, project.getBasedir().toPath());
+        } catch (final IllegalArgumentException | FileSystemNotFoundException e) {
+            throw new TemplatingMojoFailureException("Bad archive location: " + location, e);
+        }
+    }
+
+    private ArchiveFileSystems.Archive openArchive(final Path archivePath) throws IOException {
+        return BuildSessionScope.get(session, ArchiveFileSystems.class, this::createSessionArchives).open(archivePath);
+    }
+
+    private ArchiveFileSystems createSessionArchives() {
+        final ArchiveFileSystems archives = new ArchiveFileSystems();
+        BuildSessionScope.closeAtSessionEnd(session, archives);
+        return archives;
+    }
+
+    /**
+     * Fetches remote context files into the {@link HttpCache} (concurrently), so that they can be loaded from its local mirror of the remote directory.
+     *
+     * @param rootUri  the remote directory
+     * @param includes the paths of the context files, relative to the directory
+     * @return the context files, rooted at the local mirror
+     * @throws MojoExecutionException if any file can't be fetched
+     */
+    private LoadableEntities fetchRemoteContexts(final URI rootUri, final List<String> includes) throws MojoExecutionException {
+        final HttpCache cache = getRemoteFileCache();
+        final List<URI> uris  = includes.stream().map(rootUri::resolve).collect(Collectors.toList());
+        try {
+            cache.fetchAll(uris, httpFetchThreads);
+            final Path localRoot = Files.createDirectories(cache.localPathFor(rootUri));
+            getLog().debug("Context: fetched " + uris.size() + " remote file(s) into " + localRoot + " (HTTP cache: " + cache.getDownloadCount() + " downloaded, "
+                    + cache.getRevalidationCount() + " revalidated)");
+            return new LoadableEntities(localRoot.toUri(), includes, fileTypeSuffix, FS);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Cannot fetch remote context files from " + rootUri + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the cache for remote files, or null if it's disabled
+     */
+    private synchronized HttpCache getRemoteFileCache() {
+        if (httpCache && remoteFileCache == null) {
+            final boolean offline = session != null && session.isOffline();
+            remoteFileCache = new HttpCache(httpCacheDirectory.toPath(), TimeUnit.SECONDS.toMillis(httpCacheTtl), offline, getLog());
+        }
+        return remoteFileCache;
+    }
+
+    /**
+     * A compiled template, with the mapping which names its output files.
+     */
+    private static final class OutputTemplate {
+        final TemplateMapping  mapping;
+        final CompiledTemplate template;
+
+        OutputTemplate(final TemplateMapping mapping, final CompiledTemplate template) {
+            this.mapping = mapping;
+            this.template = template;
+        }
+
+        Path outputPathFor(final LoadedEntityScopes context) {
+            return mapping.resolveOutputPath(context.getRelativeOutputPath());
+        }
+    }
+
+    /**
+     * The content of an output file, rendered by one of the templates.
+     */
+    private static final class RenderedOutput {
+        final Path   relativePath;
+        final byte[] content;
+
+        RenderedOutput(final Path relativePath, final byte[] content) {
+            this.relativePath = relativePath;
+            this.content = content;
+        }
+    }
+
+    /**
+     * The outcome of writing a context's outputs: the context's relative path, those of the context file(s) it was generated from, and those of its output files (one per
+     * template).
+     */
+    private static final class WrittenContext {
+        final String       relativePath;
+        final List<String> sourcePaths;
+        final List<Path>   outputPaths;
+
+        WrittenContext(final String relativePath, final List<String> sourcePaths, final List<Path> outputPaths) {
+            this.relativePath = relativePath;
+            this.sourcePaths = sourcePaths;
+            this.outputPaths = outputPaths;
         }
-        return contextLoader.loadAndMap(contextEntities);
     }
 
     static class TemplatingMojoFailureException extends RuntimeException {
@@ -9,12 +9,15 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
+import static java.util.Collections.singletonList;
+
 /**
  * The entry class for the maven plugin for normal main sources.
  */
-@Mojo(name = "transform", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
+@Mojo(name = TemplatingMojo.GOAL, defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
 public class TemplatingMojo extends TemplatingBaseMojo {
 
+    static final String GOAL                 = "transform";
     static final String TEMPLATE_DEFAULT_DIR = "src/main/templates";
     static final String CONTEXT_DEFAULT_DIR  = "src/main/contexts";
     static final String OUTPUT_DEFAULT_DIR   = "generated-sources/java";
@@ -25,8 +28,7 @@ public class TemplatingMojo extends TemplatingBaseMojo {
 
     @Override
     public void execute() throws MojoExecutionException {
-        templateRootDirs.add(TEMPLATE_DEFAULT_DIR);
-        String outputDirectoryPath = executeBase(CONTEXT_DEFAULT_DIR, OUTPUT_DEFAULT_DIR);
+        String outputDirectoryPath = executeBase(singletonList(TEMPLATE_DEFAULT_DIR), CONTEXT_DEFAULT_DIR, OUTPUT_DEFAULT_DIR);
         if (outputDirectoryPath != null) {
             project.addCompileSourceRoot(outputDirectoryPath);
         }
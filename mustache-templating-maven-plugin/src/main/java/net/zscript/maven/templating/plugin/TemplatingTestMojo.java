@@ -9,6 +9,8 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
+import static java.util.Arrays.asList;
+
 /**
  * The entry class for the <i>test</i> maven plugin. It differs from the {@link TemplatingMojo} templates:
  * <ul>
@@ -17,7 +19,7 @@ import org.apache.maven.plugins.annotations.Mojo;
  *     <li>if transformed output is to be considered source-code, then the output directory is added to the project's TestCompileSourceRoot list, not the normal one</li>
  * </ul>
  */
-@Mojo(name = "test-transform", defaultPhase = LifecyclePhase.GENERATE_TEST_SOURCES)
+@Mojo(name = "test-transform", defaultPhase = LifecyclePhase.GENERATE_TEST_SOURCES, threadSafe = true)
 public class TemplatingTestMojo extends TemplatingBaseMojo {
 
     static final String TEMPLATE_DEFAULT_DIR = "src/test/templates";
@@ -26,10 +28,7 @@ public class TemplatingTestMojo extends TemplatingBaseMojo {
 
     @Override
     public void execute() throws MojoExecutionException {
-        templateRootDirs.add(TEMPLATE_DEFAULT_DIR);
-        templateRootDirs.add(TemplatingMojo.TEMPLATE_DEFAULT_DIR);
-
-        String outputDirectoryPath = executeBase(CONTEXT_DEFAULT_DIR, OUTPUT_DEFAULT_DIR);
+        String outputDirectoryPath = executeBase(asList(TEMPLATE_DEFAULT_DIR, TemplatingMojo.TEMPLATE_DEFAULT_DIR), CONTEXT_DEFAULT_DIR, OUTPUT_DEFAULT_DIR);
         if (outputDirectoryPath != null) {
             project.addTestCompileSourceRoot(outputDirectoryPath);
         }
@@ -0,0 +1,104 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.singletonList;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Generates the main sources just like the "transform" goal, and then keeps watching the template and context directories, regenerating whenever anything in them changes, until
+ * interrupted (eg with Ctrl-C). This avoids Maven's startup cost while editing templates and contexts: run it as {@code mvn mustache-templating:watch@<execution-id>} to use the
+ * configuration of one of the "transform" executions, and to share its build state. A plain {@code mvn mustache-templating:watch} runs as the {@code default-cli} execution,
+ * which has build state of its own, so its first regeneration can't skip anything which that "transform" execution has already generated.
+ * <p>
+ * The watch is always incremental, whatever {@code incremental} is set to: each regeneration only re-renders the outputs of changed contexts (or all of them, if a template or
+ * partial changed). Compiled templates, and the parsed contexts, are kept in memory between regenerations. Changes in the output directory, and in the plugin's build state and
+ * cache directories, are ignored. A failed regeneration is reported, and then the watch continues, so mistakes can be fixed while it runs.
+ */
+@Mojo(name = "watch", threadSafe = true)
+public class TemplatingWatchMojo extends TemplatingBaseMojo {
+    private static final List<String> TEMPLATE_DEFAULT_DIRS = singletonList(TemplatingMojo.TEMPLATE_DEFAULT_DIR);
+
+    /**
+     * How long, in milliseconds, to wait for things to go quiet after a change before regenerating, so that a burst of changes (eg an editor saving several files) causes a single
+     * regeneration.
+     */
+    @Parameter(defaultValue = "250")
+    protected long watchDebounce;
+
+    /**
+     * The total size, in bytes, of parsed contexts to keep in memory between regenerations.
+     */
+    @Parameter(defaultValue = "67108864")
+    protected long contextMemoryCacheSize;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        regenerate();
+
+        final List<Path> watchedDirs = getLocalInputDirectories(TEMPLATE_DEFAULT_DIRS, TemplatingMojo.CONTEXT_DEFAULT_DIR);
+        if (watchedDirs.isEmpty()) {
+            throw new MojoExecutionException("Nothing to watch: neither the templates nor the contexts are in a local directory");
+        }
+        final List<Path> generatedDirs = getGeneratedDirectories(TemplatingMojo.OUTPUT_DEFAULT_DIR);
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(watchedDirs.get(0), p -> generatedDirs.stream().anyMatch(p::startsWith))) {
+            for (Path dir : watchedDirs) {
+                watcher.registerTree(dir);
+            }
+            getLog().info("Watching for changes in " + watchedDirs + " - press Ctrl-C to stop");
+            while (true) {
+                final Set<Path> changed = watcher.awaitChanges(watchDebounce);
+                getLog().info("Changed: " + (changed.size() <= 5 ? changed.toString() : changed.size() + " files"));
+                regenerate();
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Cannot watch for changes: " + e.getMessage(), e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("Stopped watching");
+        }
+    }
+
+    private void regenerate() {
+        try {
+            executeBase(TEMPLATE_DEFAULT_DIRS, TemplatingMojo.CONTEXT_DEFAULT_DIR, TemplatingMojo.OUTPUT_DEFAULT_DIR);
+        } catch (final MojoExecutionException | RuntimeException e) {
+            getLog().error("Generation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Shares the build state of the "transform" execution with the same id, as that generates the same outputs: so the first regeneration only needs to generate what's changed
+     * since that last ran, and later "transform" runs know what the watch has generated (or pruned).
+     */
+    @Override
+    protected String getBuildStateGoal() {
+        return TemplatingMojo.GOAL;
+    }
+
+    /**
+     * Always true, as regenerating just what's changed is the point of watching (though, as for "transform", everything is still regenerated if {@code loadBatchSize} is zero or
+     * less).
+     */
+    @Override
+    protected boolean isIncremental() {
+        return true;
+    }
+
+    @Override
+    protected long getContextMemoryCacheSize() {
+        return contextMemoryCacheSize;
+    }
+}
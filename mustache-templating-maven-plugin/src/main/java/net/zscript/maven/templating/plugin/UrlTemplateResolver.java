@@ -0,0 +1,52 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.mustachejava.MustacheResolver;
+
+/**
+ * Resolves templates (and partials) relative to a remote directory URL. If there's an {@link HttpCache}, http(s) templates are read through it; otherwise they're fetched
+ * directly on every read.
+ */
+final class UrlTemplateResolver implements MustacheResolver {
+    private final URI       root;
+    private final HttpCache cache;
+
+    /**
+     * @param root  the directory URI, ending in '/'
+     * @param cache the cache to fetch through, or null to always fetch directly
+     */
+    UrlTemplateResolver(final URI root, final HttpCache cache) {
+        this.root = root;
+        this.cache = cache;
+    }
+
+    @Override
+    public Reader getReader(final String resourceName) {
+        final URI resource = root.resolve(resourceName);
+        try {
+            if (cache != null && HttpCache.isCacheable(resource)) {
+                return Files.newBufferedReader(cache.fetch(resource), UTF_8);
+            }
+            return new BufferedReader(new InputStreamReader(resource.toURL().openStream(), UTF_8));
+        } catch (final FileNotFoundException e) {
+            return null;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read template: " + resource, e);
+        }
+    }
+}
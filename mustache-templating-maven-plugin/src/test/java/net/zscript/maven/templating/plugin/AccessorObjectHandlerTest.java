@@ -0,0 +1,165 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheException;
+import com.github.mustachejava.ObjectHandler;
+import com.github.mustachejava.reflect.ReflectionObjectHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class AccessorObjectHandlerTest {
+    public static class Person {
+        public final String   name;
+        public final int      age;
+        public final Person   manager;
+        private final boolean active;
+
+        Person(final String name, final int age, final Person manager, final boolean active) {
+            this.name = name;
+            this.age = age;
+            this.manager = manager;
+            this.active = active;
+        }
+
+        public String getTitle() {
+            return "Dr " + name;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public List<String> tags() {
+            return Arrays.asList(name.toLowerCase(), "t" + age);
+        }
+
+        public Map<String, Object> getAttributes() {
+            return Collections.singletonMap("role", age > 40 ? "lead" : "member");
+        }
+
+        public Function<String, String> getShout() {
+            return s -> s.toUpperCase() + "!";
+        }
+
+        public static String getKind() {
+            return "person";
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException("broken getter");
+        }
+    }
+
+    /** Not public, so its methods need Mustache to make them accessible. */
+    static class Hidden {
+        String getSecret() {
+            return "hidden-secret";
+        }
+    }
+
+    /** Has a manager, but not one with attributes. */
+    public static class Desk {
+        public final Object manager = new Hidden();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{{name}} {{age}} {{title}} {{kind}} {{missing}}|",
+            "{{#active}}on{{/active}}{{^active}}off{{/active}} {{attributes.role}}|",
+            "{{#tags}}<{{.}}/{{name}}>{{/tags}}|",
+            "{{manager.name}} {{manager.title}} {{manager.manager.name}} {{#manager}}{{name}}:{{age}}{{/manager}}|",
+            "{{#shout}}hello {{name}}{{/shout}}|",
+            "{{#people}}[{{name}}/{{title}}/{{attributes.role}}/{{#active}}A{{/active}}]{{/people}}|",
+            "{{hidden.secret}} {{#hidden}}{{secret}}{{/hidden}} {{label}}|",
+            "{{#desks}}[{{manager.attributes.role}}/{{manager.secret}}/{{manager.attributes}}]{{/desks}}|",
+            "{{#maps}}[{{manager.attributes.role}}/{{manager.age}}/{{manager.name}}]{{/maps}}|",
+    })
+    void shouldRenderExactlyAsReflectionHandler(final String template) {
+        final String expected = render(new ReflectionObjectHandler(), template);
+        assertThat(render(new AccessorObjectHandler(), template)).isEqualTo(expected);
+    }
+
+    @Test
+    void shouldRenderPojoProperties() {
+        assertThat(render(new AccessorObjectHandler(), "{{title}} {{manager.title}} {{#people}}{{age}};{{/people}} {{hidden.secret}} {{kind}}"))
+                .isEqualTo("Dr Ann Dr Bob 30;50; hidden-secret person");
+    }
+
+    @Test
+    void shouldContinueInOuterScopeWhenInnerPartOfDottedNameIsMissing() {
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("a", Collections.singletonMap("b", Collections.singletonMap("c", "abc")));
+        root.put("items", Collections.singletonList(Collections.singletonMap("a", Collections.singletonMap("z", 1))));
+        final List<Object> mapScopes = Collections.singletonList(root);
+
+        assertThat(render(new AccessorObjectHandler(), "{{#items}}[{{a.b.c}}]{{/items}}", mapScopes)).isEqualTo("[abc]")
+                .isEqualTo(render(new ReflectionObjectHandler(), "{{#items}}[{{a.b.c}}]{{/items}}", mapScopes));
+        // the desk's manager has no attributes, so they're found through the (POJO) outer scope's manager instead
+        assertThat(render(new AccessorObjectHandler(), "{{#desks}}[{{manager.attributes.role}}]{{/desks}}")).isEqualTo("[lead]")
+                .isEqualTo(render(new ReflectionObjectHandler(), "{{#desks}}[{{manager.attributes.role}}]{{/desks}}"));
+    }
+
+    @Test
+    void shouldReuseBindingsAcrossScopesOfSameClass() {
+        final DefaultMustacheFactory factory = new DefaultMustacheFactory();
+        factory.setObjectHandler(new AccessorObjectHandler());
+        final Mustache mustache = factory.compile(new StringReader("{{title}}/{{age}}"), "test");
+
+        for (int i = 0; i < 3; i++) {
+            final StringWriter out = new StringWriter();
+            mustache.execute(out, Collections.<Object>singletonList(new Person("P" + i, i, null, true)));
+            assertThat(out.toString()).isEqualTo("Dr P" + i + "/" + i);
+        }
+    }
+
+    @Test
+    void shouldWrapExceptionsFromAccessors() {
+        assertThatThrownBy(() -> render(new AccessorObjectHandler(), "{{broken}}"))
+                .isInstanceOf(MustacheException.class)
+                .hasRootCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("broken getter");
+    }
+
+    private static String render(final ObjectHandler handler, final String template) {
+        return render(handler, template, scopes());
+    }
+
+    private static String render(final ObjectHandler handler, final String template, final List<Object> scopes) {
+        final DefaultMustacheFactory factory = new DefaultMustacheFactory();
+        factory.setObjectHandler(handler);
+        final StringWriter out = new StringWriter();
+        factory.compile(new StringReader(template), "test").execute(out, scopes);
+        return out.toString();
+    }
+
+    private static List<Object> scopes() {
+        final Person bob = new Person("Bob", 50, null, false);
+        final Person ann = new Person("Ann", 30, bob, true);
+        final Map<String, Object> extra = new LinkedHashMap<>();
+        extra.put("label", "map-label");
+        extra.put("people", Arrays.asList(ann, bob));
+        extra.put("hidden", new Hidden());
+        extra.put("desks", Collections.singletonList(new Desk()));
+        extra.put("maps", Collections.singletonList(Collections.singletonMap("manager", Collections.singletonMap("age", 1))));
+        return Arrays.asList(extra, ann);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArchiveFileSystemsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldParseArchiveLocations() throws IOException {
+        final Path jar = writeArchive("contexts.jar", "defs/a.yaml");
+
+        final ArchiveFileSystems.Location relative = ArchiveFileSystems.Location.parse("contexts.jar!/defs/", tempDir);
+        assertThat(relative.getArchivePath()).isEqualTo(jar);
+        assertThat(relative.getDirectory()).isEqualTo("defs");
+
+        final ArchiveFileSystems.Location whole = ArchiveFileSystems.Location.parse(jar.toString(), tempDir);
+        assertThat(whole.getArchivePath()).isEqualTo(jar);
+        assertThat(whole.getDirectory()).isEmpty();
+
+        final ArchiveFileSystems.Location uri = ArchiveFileSystems.Location.parse("jar:" + jar.toUri() + "!/defs", tempDir);
+        assertThat(uri.getArchivePath()).isEqualTo(jar);
+        assertThat(uri.getDirectory()).isEqualTo("defs");
+    }
+
+    @Test
+    void shouldNotParseNonArchiveLocations() throws IOException {
+        Files.createDirectories(tempDir.resolve("dir.zip"));
+        assertThat(ArchiveFileSystems.Location.parse("src/main/contexts", tempDir)).isNull();
+        assertThat(ArchiveFileSystems.Location.parse("https://example.com/contexts", tempDir)).isNull();
+        assertThat(ArchiveFileSystems.Location.parse("dir.zip", tempDir)).isNull();
+    }
+
+    @Test
+    void shouldListFilesInArchiveDirectory() throws IOException {
+        final Path jar = writeArchive("contexts.zip", "defs/sub/b.yaml", "defs/a.yaml", "other/c.yaml");
+        try (ArchiveFileSystems archives = new ArchiveFileSystems()) {
+            final Path dir = archives.open(jar).getDirectory("defs");
+            assertThat(ArchiveFileSystems.listFiles(dir)).containsExactly("a.yaml", "sub/b.yaml");
+            assertThat(new String(Files.readAllBytes(dir.resolve("sub/b.yaml")), UTF_8)).isEqualTo("defs/sub/b.yaml");
+        }
+    }
+
+    @Test
+    void shouldReuseArchiveUntilItChanges() throws IOException {
+        final Path jar = writeArchive("contexts.zip", "a.yaml");
+        try (ArchiveFileSystems archives = new ArchiveFileSystems()) {
+            final ArchiveFileSystems.Archive first = archives.open(jar);
+            assertThat(archives.open(jar)).isSameAs(first);
+
+            writeArchive("contexts.zip", "a.yaml", "b.yaml");
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 2000));
+            final ArchiveFileSystems.Archive second = archives.open(jar);
+            assertThat(second).isNotSameAs(first);
+            assertThat(second.getKey()).isNotEqualTo(first.getKey());
+            assertThat(ArchiveFileSystems.listFiles(second.getDirectory(""))).containsExactly("a.yaml", "b.yaml");
+
+            // the superseded one stays open for anything still reading it
+            assertThat(ArchiveFileSystems.listFiles(first.getDirectory(""))).containsExactly("a.yaml");
+        }
+    }
+
+    private Path writeArchive(final String name, final String... entries) throws IOException {
+        final Path archive = tempDir.resolve(name);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (String entry : asList(entries)) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(entry.getBytes(UTF_8));
+                out.closeEntry();
+            }
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BuildStateManifestTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldRoundTripEntriesAndOutputDirectory() throws IOException {
+        final BuildStateManifest manifest = new BuildStateManifest("/out");
+        manifest.put("a.yaml", "fp-a", asList("a.java", "aImpl.java"));
+        manifest.put("sub/b.yaml", "fp-b", singletonList("sub/b.java"));
+        manifest.write(dir.resolve("state"));
+
+        final BuildStateManifest read = BuildStateManifest.read(dir.resolve("state"));
+        assertThat(read.getOutputDirectory()).isEqualTo("/out");
+        assertThat(read.get("a.yaml").getFingerprint()).isEqualTo("fp-a");
+        assertThat(read.get("sub/b.yaml").getOutputs()).containsExactly("sub/b.java");
+        assertThat(read.getAllOutputs()).containsExactly("a.java", "aImpl.java", "sub/b.java");
+    }
+
+    @Test
+    void shouldRoundTripIncludes() throws IOException {
+        final BuildStateManifest manifest = new BuildStateManifest("/out");
+        manifest.put("a.yaml", "fp-a", singletonList("a.java"));
+        manifest.putInclude("common/types.yaml", "digest-t");
+        manifest.putInclude("../shared.yaml", BuildStateManifest.NO_FINGERPRINT);
+        manifest.write(dir.resolve("state"));
+
+        final BuildStateManifest read = BuildStateManifest.read(dir.resolve("state"));
+        assertThat(read.getIncludes()).containsOnlyKeys("common/types.yaml", "../shared.yaml").containsEntry("common/types.yaml", "digest-t");
+        assertThat(read.get("a.yaml").getOutputs()).containsExactly("a.java");
+        assertThat(read.getAllOutputs()).containsExactly("a.java");
+    }
+
+    @Test
+    void shouldIgnoreOldVersionManifest() throws IOException {
+        Files.write(dir.resolve("state"), "# mustache-templating build state, version 1\nfp-a\ta.yaml\ta.java\n".getBytes(UTF_8));
+
+        final BuildStateManifest read = BuildStateManifest.read(dir.resolve("state"));
+        assertThat(read.getOutputDirectory()).isNull();
+        assertThat(read.get("a.yaml")).isNull();
+    }
+
+    @Test
+    void shouldFindOutputsNoLongerGenerated() {
+        final BuildStateManifest previous = new BuildStateManifest("/out");
+        previous.put("a.yaml", "fp-a", asList("a.java", "aImpl.java"));
+        previous.put("b.yaml", "fp-b", singletonList("b.java"));
+
+        final BuildStateManifest current = new BuildStateManifest("/out");
+        current.put("a.yaml", "fp-a2", singletonList("a.java"));
+        current.put("c.yaml", "fp-c", singletonList("c.java"));
+
+        assertThat(previous.getOrphanedOutputs(current)).containsExactly("aImpl.java", "b.java");
+    }
+
+    @Test
+    void shouldFindNoOrphansForDifferentOrUnknownOutputDirectory() {
+        final BuildStateManifest previous = new BuildStateManifest("/out");
+        previous.put("a.yaml", "fp-a", singletonList("a.java"));
+
+        assertThat(previous.getOrphanedOutputs(new BuildStateManifest("/elsewhere"))).isEmpty();
+        assertThat(new BuildStateManifest(null).getOrphanedOutputs(previous)).isEmpty();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathResourceIndexTest {
+    @TempDir
+    Path tempDir;
+
+    private URLClassLoader classLoader;
+
+    @BeforeEach
+    void createClasspath() throws IOException {
+        // a jar with no directory entries, and a directory with overlapping contents
+        final Path jar = tempDir.resolve("defs.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (String name : asList("defs/a.yaml", "defs/sub/b.yaml", "defs/sub/c.json", "defs/.git/config", "other/d.yaml")) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(UTF_8));
+                out.closeEntry();
+            }
+        }
+        final Path dir = tempDir.resolve("classes");
+        Files.createDirectories(dir.resolve("defs/extra"));
+        try (OutputStream out = Files.newOutputStream(dir.resolve("defs/extra/e.yaml"))) {
+            out.write("e".getBytes(UTF_8));
+        }
+        classLoader = new URLClassLoader(new URL[] { jar.toUri().toURL(), dir.toUri().toURL() }, null);
+    }
+
+    @Test
+    void shouldListResourcesFromJarsAndDirectories() {
+        final ClasspathResourceIndex index = new ClasspathResourceIndex(classLoader);
+        assertThat(index.list("defs")).containsExactly(".git/config", "a.yaml", "extra/e.yaml", "sub/b.yaml", "sub/c.json");
+        assertThat(index.list("defs/")).isSameAs(index.list("defs/"));
+    }
+
+    @Test
+    void shouldMatchIncludesAndExcludes() {
+        final ClasspathResourceIndex index = new ClasspathResourceIndex(classLoader);
+        assertThat(index.match("defs/", singletonList("**/*.yaml"), emptyList(), true)).containsExactly("a.yaml", "extra/e.yaml", "sub/b.yaml");
+        assertThat(index.match("defs/", singletonList("**/*.yaml"), singletonList("extra/"), true)).containsExactly("a.yaml", "sub/b.yaml");
+        assertThat(index.match("defs/", singletonList("sub/*"), emptyList(), true)).containsExactly("sub/b.yaml", "sub/c.json");
+    }
+
+    @Test
+    void shouldApplyDefaultExcludesOnlyIfRequested() {
+        final ClasspathResourceIndex index = new ClasspathResourceIndex(classLoader);
+        assertThat(index.match("defs/", emptyList(), emptyList(), true)).doesNotContain(".git/config");
+        assertThat(index.match("defs/", emptyList(), emptyList(), false)).contains(".git/config");
+    }
+}
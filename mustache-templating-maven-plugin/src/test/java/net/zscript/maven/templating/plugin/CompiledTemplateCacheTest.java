@@ -0,0 +1,81 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.mustachejava.resolver.FileSystemResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompiledTemplateCacheTest {
+    @TempDir
+    Path dir;
+
+    private final CompiledTemplateCache cache = new CompiledTemplateCache();
+
+    private TemplateRoot root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        write("main.mustache", "Hello {{name}}{{> part.mustache}}");
+        write("part.mustache", "!");
+        root = new TemplateRoot("file:" + dir, new FileSystemResolver(dir.toFile()));
+    }
+
+    @Test
+    void shouldReuseTemplateWhenNothingChanged() {
+        final CompiledTemplate first = cache.get(root, "main.mustache", ObjectHandlerType.MAP);
+
+        assertThat(first.getResourceDigests()).containsOnlyKeys("main.mustache", "part.mustache");
+        assertThat(cache.get(root, "main.mustache", ObjectHandlerType.MAP)).isSameAs(first);
+        // an equivalent root, eg from another execution, shares the entry
+        assertThat(cache.get(new TemplateRoot("file:" + dir, new FileSystemResolver(dir.toFile())), "main.mustache", ObjectHandlerType.MAP)).isSameAs(first);
+        assertThat(cache.get(root, "main.mustache", ObjectHandlerType.REFLECTION)).isNotSameAs(first);
+        assertThat(render(first)).isEqualTo("Hello World!");
+    }
+
+    @Test
+    void shouldRecompileWhenTemplateChanges() throws IOException {
+        final CompiledTemplate first = cache.get(root, "main.mustache", ObjectHandlerType.MAP);
+        write("main.mustache", "Goodbye {{name}}{{> part.mustache}}");
+
+        final CompiledTemplate second = cache.get(root, "main.mustache", ObjectHandlerType.MAP);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getDigest()).isNotEqualTo(first.getDigest());
+        assertThat(render(second)).isEqualTo("Goodbye World!");
+    }
+
+    @Test
+    void shouldRecompileWhenPartialChanges() throws IOException {
+        final CompiledTemplate first = cache.get(root, "main.mustache", ObjectHandlerType.MAP);
+        write("part.mustache", "?");
+
+        assertThat(first.isUpToDate()).isFalse();
+        final CompiledTemplate second = cache.get(root, "main.mustache", ObjectHandlerType.MAP);
+        assertThat(second).isNotSameAs(first);
+        assertThat(render(second)).isEqualTo("Hello World?");
+        assertThat(cache.get(root, "main.mustache", ObjectHandlerType.MAP)).isSameAs(second);
+    }
+
+    private void write(final String name, final String content) throws IOException {
+        Files.write(dir.resolve(name), content.getBytes(UTF_8));
+    }
+
+    private static String render(final CompiledTemplate template) {
+        final StringWriter out = new StringWriter();
+        template.getMustache().execute(out, singletonMap("name", "World"));
+        return out.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryWatcherTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldReportChangesInTreeIncludingNewDirectories() throws Exception {
+        Files.createDirectories(dir.resolve("sub"));
+        Files.createDirectories(dir.resolve("ignored"));
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, p -> p.startsWith(dir.resolve("ignored")))) {
+            watcher.registerTree(dir);
+
+            write("sub/a.yaml");
+            write("ignored/x.txt");
+            assertThat(await(watcher)).contains(dir.resolve("sub/a.yaml")).noneMatch(p -> p.startsWith(dir.resolve("ignored")));
+
+            Files.createDirectories(dir.resolve("new"));
+            await(watcher);
+            write("new/b.yaml");
+            assertThat(await(watcher)).contains(dir.resolve("new/b.yaml"));
+        }
+    }
+
+    @Test
+    void shouldDebounceBurstsOfChanges() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, p -> false)) {
+            watcher.registerTree(dir);
+            final CompletableFuture<Set<Path>> changes = CompletableFuture.supplyAsync(() -> awaitUnchecked(watcher));
+            for (int i = 0; i < 3; i++) {
+                write("f" + i);
+                Thread.sleep(50);
+            }
+            assertThat(changes.get(30, TimeUnit.SECONDS)).contains(dir.resolve("f0"), dir.resolve("f1"), dir.resolve("f2"));
+        }
+    }
+
+    private void write(final String name) throws IOException {
+        Files.write(dir.resolve(name), name.getBytes(UTF_8));
+    }
+
+    /**
+     * Some WatchService implementations poll (eg every few seconds on macOS), so allow plenty of time.
+     */
+    private static Set<Path> await(final DirectoryWatcher watcher) throws InterruptedException, ExecutionException, TimeoutException {
+        return CompletableFuture.supplyAsync(() -> awaitUnchecked(watcher)).get(30, TimeUnit.SECONDS);
+    }
+
+    private static Set<Path> awaitUnchecked(final DirectoryWatcher watcher) {
+        try {
+            return watcher.awaitChanges(500);
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
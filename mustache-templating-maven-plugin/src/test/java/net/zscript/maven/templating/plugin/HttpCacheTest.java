@@ -0,0 +1,159 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HttpCacheTest {
+    private final Map<String, String> files           = new ConcurrentHashMap<>();
+    private final AtomicInteger       requestCount    = new AtomicInteger();
+    private final AtomicInteger       notModifiedSent = new AtomicInteger();
+
+    @TempDir
+    Path cacheDir;
+
+    private HttpServer server;
+    private URI        root;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        root = URI.create("http://localhost:" + server.getAddress().getPort() + "/defs/");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Serves the files map, with each file's ETag being a hash of its content.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        final String content = files.get(exchange.getRequestURI().getPath());
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+        } else {
+            final String etag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedSent.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                final byte[] body = content.getBytes(UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        }
+        exchange.close();
+    }
+
+    @Test
+    void shouldServeFromCacheWithinTtl() throws IOException {
+        files.put("/defs/a.yaml", "a: 1");
+        final HttpCache cache = new HttpCache(cacheDir, 60_000, false, new SystemStreamLog());
+
+        final Path first = cache.fetch(root.resolve("a.yaml"));
+        files.put("/defs/a.yaml", "a: 2");
+        final Path second = new HttpCache(cacheDir, 60_000, false, new SystemStreamLog()).fetch(root.resolve("a.yaml"));
+
+        assertThat(second).isEqualTo(first).isEqualTo(cache.localPathFor(root).resolve("a.yaml"));
+        assertThat(new String(Files.readAllBytes(second), UTF_8)).isEqualTo("a: 1");
+        assertThat(requestCount).hasValue(1);
+    }
+
+    @Test
+    void shouldRevalidateWithETagOnceTtlExpires() throws IOException {
+        files.put("/defs/a.yaml", "a: 1");
+        new HttpCache(cacheDir, 0, false, new SystemStreamLog()).fetch(root.resolve("a.yaml"));
+
+        final HttpCache unchanged = new HttpCache(cacheDir, 0, false, new SystemStreamLog());
+        assertThat(new String(Files.readAllBytes(unchanged.fetch(root.resolve("a.yaml"))), UTF_8)).isEqualTo("a: 1");
+        assertThat(unchanged.getRevalidationCount()).isEqualTo(1);
+        assertThat(unchanged.getDownloadCount()).isZero();
+
+        files.put("/defs/a.yaml", "a: 2");
+        final HttpCache changed = new HttpCache(cacheDir, 0, false, new SystemStreamLog());
+        assertThat(new String(Files.readAllBytes(changed.fetch(root.resolve("a.yaml"))), UTF_8)).isEqualTo("a: 2");
+        assertThat(changed.getDownloadCount()).isEqualTo(1);
+        assertThat(notModifiedSent).hasValue(1);
+    }
+
+    @Test
+    void shouldUseStaleCopyOfflineButFailIfNotCached() throws IOException {
+        files.put("/defs/a.yaml", "a: 1");
+        files.put("/defs/b.yaml", "b: 1");
+        new HttpCache(cacheDir, 0, false, new SystemStreamLog()).fetch(root.resolve("a.yaml"));
+
+        final HttpCache offline = new HttpCache(cacheDir, 0, true, new SystemStreamLog());
+        assertThat(new String(Files.readAllBytes(offline.fetch(root.resolve("a.yaml"))), UTF_8)).isEqualTo("a: 1");
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> offline.fetch(root.resolve("b.yaml")))
+                .withMessageContaining("offline");
+        assertThat(requestCount).hasValue(1);
+    }
+
+    @Test
+    void shouldUseStaleCopyIfServerUnavailable() throws IOException {
+        files.put("/defs/a.yaml", "a: 1");
+        new HttpCache(cacheDir, 0, false, new SystemStreamLog()).fetch(root.resolve("a.yaml"));
+        server.stop(0);
+
+        final Path cached = new HttpCache(cacheDir, 0, false, new SystemStreamLog()).fetch(root.resolve("a.yaml"));
+        assertThat(new String(Files.readAllBytes(cached), UTF_8)).isEqualTo("a: 1");
+    }
+
+    @Test
+    void shouldReportMissingFiles() {
+        final HttpCache cache = new HttpCache(cacheDir, 60_000, false, new SystemStreamLog());
+        assertThatExceptionOfType(FileNotFoundException.class).isThrownBy(() -> cache.fetch(root.resolve("missing.yaml")));
+    }
+
+    @Test
+    void shouldFetchManyFilesConcurrentlyIntoMirroredDirectory() throws IOException {
+        final List<URI> uris = IntStream.range(0, 20).mapToObj(i -> {
+            files.put("/defs/sub/f" + i + ".yaml", "f: " + i);
+            return root.resolve("sub/f" + i + ".yaml");
+        }).collect(toList());
+
+        final HttpCache cache = new HttpCache(cacheDir, 60_000, false, new SystemStreamLog());
+        cache.fetchAll(uris, 4);
+
+        assertThat(cache.getDownloadCount()).isEqualTo(20);
+        assertThat(new String(Files.readAllBytes(cache.localPathFor(root).resolve("sub/f7.yaml")), UTF_8)).isEqualTo("f: 7");
+        assertThat(cache.localPathFor(root).resolve("sub").toFile().list()).hasSize(20);
+    }
+}
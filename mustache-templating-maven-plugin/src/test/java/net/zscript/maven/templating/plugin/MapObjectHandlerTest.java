@@ -0,0 +1,97 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.ObjectHandler;
+import com.github.mustachejava.reflect.ReflectionObjectHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MapObjectHandlerTest {
+    public static class Pojo {
+        public final String label = "pojo-label";
+
+        public Map<String, Object> getInner() {
+            return map("value", "pojo-inner");
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{{name}} {{missing}}|",
+            "{{a.b.c}} {{a.b}} {{a.x.c}} {{dotted.key}}|",
+            "{{#items}}[{{name}}:{{id}}:{{top}}]{{/items}}|",
+            "{{#items}}{{#tags}}<{{.}}/{{id}}>{{/tags}}{{/items}}|",
+            "{{^missing}}none{{/missing}}{{#a}}{{b.c}}{{/a}}|",
+            "{{items.size}} {{nothing.at.all}} {{nullValue}} {{nullValue.x}}|",
+            "{{opt}} {{pojo.label}} {{pojo.inner.value}} {{#pojo}}{{label}}/{{name}}{{/pojo}}|",
+            "{{#items}}{{#a}}{{b.c}}{{/a}}{{/items}}|",
+            "{{#partial}}[{{a.b.c}}]{{/partial}}|",
+            "{{#partial}}[{{a.z}}/{{a.b}}/{{a.b.z}}/{{a.x.y.z}}/{{#a}}{{b.c}}{{/a}}]{{/partial}}|",
+    })
+    void shouldRenderExactlyAsReflectionHandler(final String template) {
+        final String expected = render(new ReflectionObjectHandler(), template);
+        assertThat(render(new MapObjectHandler(), template)).isEqualTo(expected);
+    }
+
+    @Test
+    void shouldResolveNamesInInnermostScopeFirst() {
+        assertThat(render(new MapObjectHandler(), "{{a.b.c}} {{dotted.key}} {{#items}}{{name}}:{{top}};{{/items}}"))
+                .isEqualTo("abc whole-key first:top-value;root-name:top-value;:top-value;");
+    }
+
+    @Test
+    void shouldContinueInOuterScopeOnlyWhenInnerPartOfDottedNameIsMissing() {
+        // "a.b" is missing from the first, so it's found in the root; the others stop at a null or a missing "c"
+        assertThat(render(new MapObjectHandler(), "{{#partial}}[{{a.b.c}}]{{/partial}}")).isEqualTo("[abc][][][]")
+                .isEqualTo(render(new ReflectionObjectHandler(), "{{#partial}}[{{a.b.c}}]{{/partial}}"));
+    }
+
+    private static String render(final ObjectHandler handler, final String template) {
+        final DefaultMustacheFactory factory = new DefaultMustacheFactory();
+        factory.setObjectHandler(handler);
+        final StringWriter out = new StringWriter();
+        factory.compile(new StringReader(template), "test").execute(out, scopes());
+        return out.toString();
+    }
+
+    private static List<Object> scopes() {
+        final Map<String, Object> root = map("name", "root-name", "top", "top-value");
+        root.put("a", map("b", map("c", "abc")));
+        root.put("dotted.key", "whole-key");
+        root.put("items", Arrays.asList(
+                map("name", "first", "id", 1, "tags", Arrays.asList("x", "y")),
+                map("id", 2, "a", map("b", map("c", "inner-abc"))),
+                map("name", null, "id", 3)));
+        // each has "a", but doesn't lead to "a.b.c"
+        root.put("partial", Arrays.asList(map("a", map("z", 1)), map("a", map("b", null)), map("a", map("b", map("z", 2))), map("a", null)));
+        root.put("nullValue", null);
+        root.put("opt", Optional.of("optional-value"));
+        root.put("pojo", new Pojo());
+        return Arrays.asList(Collections.singletonMap("extra", "scope"), root);
+    }
+
+    private static Map<String, Object> map(final Object... keysAndValues) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputEncoderTest {
+    private final Mustache mustache = new DefaultMustacheFactory().compile(new StringReader("Hello {{name}}!"), "test");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldEncodeLikeGetBytes() {
+        final OutputEncoder encoder = new OutputEncoder(UTF_8, OutputEncoder.DEFAULT_BUFFER_SIZE);
+        assertThat(encoder.render(mustache, scopes("Zoë 😀"))).isEqualTo("Hello Zoë 😀!".getBytes(UTF_8));
+        assertThat(encoder.render(mustache, scopes("Bob"))).isEqualTo("Hello Bob!".getBytes(UTF_8));
+    }
+
+    @Test
+    void shouldReplaceUnmappableCharacters() {
+        final OutputEncoder encoder = new OutputEncoder(ISO_8859_1, OutputEncoder.DEFAULT_BUFFER_SIZE);
+        assertThat(encoder.render(mustache, scopes("Zoë €"))).isEqualTo("Hello Zoë €!".getBytes(ISO_8859_1));
+    }
+
+    @Test
+    void shouldGrowBuffersForLargeOutputs() {
+        final OutputEncoder encoder = new OutputEncoder(UTF_8, 16);
+        final String        name    = String.join("", Collections.nCopies(1000, "ë-"));
+        assertThat(encoder.render(mustache, scopes(name))).isEqualTo(("Hello " + name + "!").getBytes(UTF_8));
+        assertThat(encoder.render(mustache, scopes("Al"))).isEqualTo("Hello Al!".getBytes(UTF_8));
+    }
+
+    @Test
+    void shouldWriteAndCompareThroughSmallBuffers() throws IOException {
+        final OutputFileWriter writer  = new OutputFileWriter(true, 512);
+        final Path             file    = dir.resolve("out.txt");
+        final byte[]           content = String.join("", Collections.nCopies(300, "abcd")).getBytes(UTF_8);
+
+        assertThat(writer.write(file, content)).isTrue();
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        assertThat(writer.write(file, content)).isFalse();
+
+        content[content.length - 1] = 'x';
+        assertThat(OutputFileWriter.hasContent(file, content, ByteBuffer.allocate(512))).isFalse();
+        assertThat(writer.write(file, content)).isTrue();
+        assertThat(writer.getChangedCount()).isEqualTo(2);
+        assertThat(writer.getUnchangedCount()).isEqualTo(1);
+    }
+
+    private static List<Object> scopes(final String name) {
+        return Collections.<Object>singletonList(Collections.singletonMap("name", name));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputFileWriterTest {
+    private static final FileTime PAST = FileTime.fromMillis(1_000_000_000_000L);
+
+    @TempDir
+    Path dir;
+
+    private final OutputFileWriter writer = new OutputFileWriter(true, 512);
+
+    @Test
+    void shouldLeaveFileWithSameContentUntouched() throws IOException {
+        // longer than the compare buffer, so it's compared a chunk at a time
+        final byte[] content = content(2000, 'a');
+        final Path   file    = existingFile(content);
+
+        assertThat(writer.write(file, content.clone())).isFalse();
+        assertThat(Files.getLastModifiedTime(file)).isEqualTo(PAST);
+        assertThat(writer.getUnchangedCount()).isEqualTo(1);
+        assertThat(writer.getChangedCount()).isZero();
+    }
+
+    @Test
+    void shouldReplaceFileWithDifferentContent() throws IOException {
+        final Path   file    = existingFile(content(2000, 'a'));
+        final byte[] content = content(2000, 'a');
+        content[1999] = 'b';
+
+        assertThat(writer.write(file, content)).isTrue();
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        assertThat(Files.getLastModifiedTime(file)).isNotEqualTo(PAST);
+        assertThat(writer.getChangedCount()).isEqualTo(1);
+        assertNoTempFiles();
+    }
+
+    @Test
+    void shouldReplaceFileWithDifferentLength() throws IOException {
+        final Path   file    = existingFile(content(10, 'a'));
+        final byte[] content = content(11, 'a');
+
+        assertThat(writer.write(file, content)).isTrue();
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        assertNoTempFiles();
+    }
+
+    @Test
+    void shouldCreateMissingFile() throws IOException {
+        final Path   file    = dir.resolve("new.txt");
+        final byte[] content = content(10, 'x');
+
+        assertThat(writer.write(file, content)).isTrue();
+        assertThat(Files.readAllBytes(file)).isEqualTo(content);
+        assertThat(writer.getChangedCount()).isEqualTo(1);
+        assertNoTempFiles();
+    }
+
+    @Test
+    void shouldRewriteSameContentUnlessWriteIfChanged() throws IOException {
+        final byte[] content = content(10, 'a');
+        final Path   file    = existingFile(content);
+
+        assertThat(new OutputFileWriter(false, 512).write(file, content)).isTrue();
+        assertThat(Files.getLastModifiedTime(file)).isNotEqualTo(PAST);
+    }
+
+    private Path existingFile(final byte[] content) throws IOException {
+        final Path file = dir.resolve("out.txt");
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, PAST);
+        return file;
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).extracting(p -> p.getFileName().toString()).noneMatch(name -> name.endsWith(".tmp"));
+        }
+    }
+
+    private static byte[] content(final int length, final char c) {
+        final byte[] content = new byte[length];
+        Arrays.fill(content, (byte) c);
+        return content;
+    }
+}
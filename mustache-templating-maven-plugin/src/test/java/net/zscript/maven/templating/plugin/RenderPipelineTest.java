@@ -0,0 +1,88 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin;
+
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.jupiter.api.Test;
+
+import net.zscript.maven.templating.contextloader.LoadableEntities;
+
+class RenderPipelineTest {
+    private static final int QUEUE_SIZE = 4;
+
+    private final LoadableEntities.LoadableEntity entity = new LoadableEntities(URI.create("file:///foo/"), singletonList("master"), "txt", FileSystems.getDefault())
+            .new LoadableEntity("master");
+
+    private final AtomicInteger produced  = new AtomicInteger();
+    private final AtomicInteger written   = new AtomicInteger();
+    private final AtomicInteger maxInHand = new AtomicInteger();
+
+    @Test
+    void shouldGenerateContextsWhileBatchIsStillLoading() throws MojoExecutionException {
+        final List<String> completed = new ArrayList<>();
+        pipeline().run(batches(2), singletonList(fanOut(1000, -1)), context -> context.getScopes().get(0), this::write, completed::add);
+
+        assertThat(completed).hasSize(2000).startsWith("0-0", "0-1").endsWith("1-998", "1-999");
+        // each stage's queue, plus one item in the hands of each of its threads
+        assertThat(maxInHand.get()).isLessThanOrEqualTo(2 * QUEUE_SIZE + 3);
+    }
+
+    @Test
+    void shouldGenerateContextsProducedBeforeLoadFailure() {
+        final List<String> completed = new ArrayList<>();
+        assertThatThrownBy(() -> pipeline().run(batches(2), singletonList(fanOut(10, 5)), context -> "", this::write, completed::add))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("failed after 0-4");
+
+        assertThat(completed).containsExactly("0-0", "0-1", "0-2", "0-3", "0-4");
+    }
+
+    private String write(final int batch, final LoadableEntities.LoadedEntityScopes context, final Object rendered) {
+        written.incrementAndGet();
+        // the fan-out names each context after its batch
+        assertThat(context.getRelativeOutputPath().toString()).startsWith(batch + "-");
+        return context.getRelativeOutputPath().toString();
+    }
+
+    private static RenderPipeline<Object, String> pipeline() {
+        return new RenderPipeline<>(1, 1, QUEUE_SIZE);
+    }
+
+    private static List<List<String>> batches(final int count) {
+        final List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batches.add(singletonList(String.valueOf(i)));
+        }
+        return batches;
+    }
+
+    /**
+     * A load stage which produces many contexts from each batch, one at a time, optionally failing part way through.
+     */
+    private RenderPipeline.LoadStage fanOut(final int contextsPerBatch, final int failAt) {
+        return (paths, sink) -> {
+            for (int i = 0; i < contextsPerBatch; i++) {
+                if (i == failAt) {
+                    throw new IllegalStateException("failed after " + paths.get(0) + "-" + (i - 1));
+                }
+                maxInHand.accumulateAndGet(produced.incrementAndGet() - written.get(), Math::max);
+                if (!sink.accept(entity.withScopes(singletonList(i), FileSystems.getDefault().getPath(paths.get(0) + "-" + i)))) {
+                    return;
+                }
+            }
+        };
+    }
+}
@@ -40,11 +40,41 @@ public class ExampleContextLoader implements TemplatingPluginContextLoader {
         extra.put("exampleUpper", (Function<String, String>) String::toUpperCase);
     }
 
+    /**
+     * Any 'contextLoaderProperties' configured in the POM are added to the extra items, so they can be referenced in the template too (and can override the ones above).
+     *
+     * @param properties the configured properties
+     */
+    @Override
+    public void init(Map<String, String> properties) {
+        extra.putAll(properties);
+    }
+
     @Override
     public List<LoadableEntities.LoadedEntityScopes> loadAndMap(LoadableEntities entities) {
         return entities.loadEntities(this::load);
     }
 
+    /**
+     * This loader only reads shared state (the "extra" map) after initialisation, so it's safe for the plugin to share one instance between threads.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Nothing changes after initialisation, so one instance can serve every execution with the same properties.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
     /**
      * This is executed once for each relative path in the plugin's configuration.
      *
@@ -0,0 +1,74 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.contextloader.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import net.zscript.maven.templating.contextloader.LoadableEntities;
+import net.zscript.maven.templating.contextloader.TemplatingPluginContextLoader;
+
+/**
+ * This is an example of a streaming ContextLoader, which fans each master file out into many contexts. Each file is a Properties file, with an "items" property listing
+ * (comma-separated) the items to generate a file for - so "items=a,b" in "foo.properties" generates "foo/a.txt" and "foo/b.txt", each with the file's properties plus the
+ * "item", its "index" and the "count" of items.
+ * <p>
+ * The contexts are created lazily, as the plugin consumes the stream, so however many items there are, only those currently being rendered are held in memory.
+ */
+public class ExampleFanOutContextLoader implements TemplatingPluginContextLoader {
+    @Override
+    public List<LoadableEntities.LoadedEntityScopes> loadAndMap(LoadableEntities entities) {
+        try (Stream<LoadableEntities.LoadedEntityScopes> contexts = loadAndStream(entities)) {
+            return contexts.collect(toList());
+        }
+    }
+
+    @Override
+    public Stream<LoadableEntities.LoadedEntityScopes> loadAndStream(LoadableEntities entities) {
+        return entities.streamEntities(this::load);
+    }
+
+    /**
+     * This is executed once for each relative path in the plugin's configuration, reading the master file straight away, but creating its contexts only as they're consumed.
+     *
+     * @param entity a specific relative path to be loaded/processed
+     * @return the contexts, one for each item
+     */
+    private Stream<LoadableEntities.LoadedEntityScopes> load(LoadableEntities.LoadableEntity entity) {
+        final Properties props = new Properties();
+        try (Reader r = new BufferedReader(new InputStreamReader(entity.getFullPathAsUrl().openStream(), UTF_8))) {
+            props.load(r);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        final String       relativePathToSource = entity.getRelativePath();
+        final int          dotIndex             = relativePathToSource.lastIndexOf('.');
+        final String       baseName             = dotIndex != -1 ? relativePathToSource.substring(0, dotIndex) : relativePathToSource;
+        final List<String> items                = Arrays.asList(props.getProperty("items", "").split("\\s*,\\s*"));
+
+        return IntStream.range(0, items.size()).mapToObj(i -> {
+            final Map<String, Object> item = new HashMap<>();
+            item.put("item", items.get(i));
+            item.put("index", i + 1);
+            item.put("count", items.size());
+            return entity.withScopes(Arrays.asList(props, item), entity.getFileSystem().getPath(baseName, items.get(i) + "." + entity.getFileTypeSuffix()));
+        });
+    }
+}
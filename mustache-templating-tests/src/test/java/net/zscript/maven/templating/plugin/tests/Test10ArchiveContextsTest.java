@@ -0,0 +1,42 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * These tests verify that actions performed by the Maven Plugin have succeeded. Make sure you've built the module (and its dependencies) first!
+ */
+public class Test10ArchiveContextsTest {
+    @Test
+    public void shouldCreateOutputFileForTopLevelMatch() throws IOException {
+        String      expectedContent = "Test-2 (classpath): Test mustache file: receipt is Classpath example for Joe Bloggs" + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test10/example-2.txt");
+        String      content         = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+    }
+
+    @Test
+    public void shouldCreateOutputFileForNestedMatch() throws IOException {
+        String      expectedContent = "Test-2 (classpath): Test mustache file: receipt is Nested classpath example for Jane Doe" + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test10/more/example-8.txt");
+        String      content         = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+    }
+
+    @Test
+    public void shouldNotCreateOutputFileForExcludedMatch() {
+        assertThat(getClass().getResource("/templates-out/test10/skipped-8.txt")).isNull();
+    }
+}
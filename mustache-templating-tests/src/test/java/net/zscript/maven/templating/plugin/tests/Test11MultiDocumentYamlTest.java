@@ -0,0 +1,35 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * These tests verify that actions performed by the Maven Plugin have succeeded.
+ * <p>
+ * Make sure you've built the module (and its dependencies) first, from Maven! The files we're testing are created during build, not test execution
+ */
+public class Test11MultiDocumentYamlTest {
+    @ParameterizedTest
+    @CsvSource({ "alpha,red", "beta,green", "gamma,blue" })
+    public void shouldHaveCreatedFileForEachDocument(final String name, final String colour) throws IOException {
+        String      expectedContent = "Test-11: Test mustache file: " + name + " is " + colour + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test11/test-11/" + name + ".txt");
+        assertThat(input).isNotNull();
+
+        String content = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+    }
+}
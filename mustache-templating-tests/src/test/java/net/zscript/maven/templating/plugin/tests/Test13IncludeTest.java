@@ -0,0 +1,41 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * These tests verify that actions performed by the Maven Plugin have succeeded.
+ * <p>
+ * Make sure you've built the module (and its dependencies) first, from Maven! The files we're testing are created during build, not test execution
+ */
+public class Test13IncludeTest {
+    @ParameterizedTest
+    @CsvSource({ "test-13a,first", "test-13b,second" })
+    public void shouldHaveCreatedFileWithIncludedFragment(final String file, final String name) throws IOException {
+        String      expectedContent = "Test-13: Test mustache file: " + name + " has red green blue" + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test13/" + file + ".txt");
+        assertThat(input).isNotNull();
+
+        String content = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+    }
+
+    @Test
+    public void shouldNotHaveCreatedFileForFragment() {
+        assertThat(getClass().getResourceAsStream("/templates-out/test13/fragments/test-13-palette.txt")).isNull();
+    }
+}
@@ -8,6 +8,9 @@ package net.zscript.maven.templating.plugin.tests;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static java.lang.System.lineSeparator;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -38,4 +41,13 @@ public class Test1BasicTemplatingTest {
         String content = IOUtils.toString(input, StandardCharsets.UTF_8);
         assertThat(content).isEqualTo(expectedContent);
     }
+
+    @Test
+    public void shouldHaveWrittenBuildReport() throws IOException {
+        Path reportFile = Paths.get("target", "mustache-templating", "transform-templating-test-1-default-dirs-report.json");
+        assertThat(reportFile).isRegularFile();
+
+        String content = new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8);
+        assertThat(content).contains("\"template\": \"test-1.mustache\"", "\"contexts\": 2", "\"phases\": {", "\"render\": {\"nanos\": ");
+    }
 }
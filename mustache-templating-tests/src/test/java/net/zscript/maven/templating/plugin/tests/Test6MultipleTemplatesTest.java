@@ -0,0 +1,44 @@
+/*
+ * Mustache Templating Maven Plugin - generates files and source-code using Mustache templates.
+ * Copyright (c) 2024 Zscript team (Susan Witts, Alicia Witts)
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package net.zscript.maven.templating.plugin.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * These tests verify that actions performed by the Maven Plugin have succeeded.
+ * <p>
+ * Make sure you've built the module (and its dependencies) first, from Maven! The files we're testing are created during build, not test execution
+ */
+public class Test6MultipleTemplatesTest {
+    @Test
+    public void shouldHaveCreatedMainTemplateOutput() throws IOException {
+        String      expectedContent = "Test-1: Test mustache file: receipt is Oz-Ware Purchase Invoice for Dorothy Gale" + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test6/exampleA-1.txt");
+        assertThat(input).isNotNull();
+
+        String content = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+    }
+
+    @Test
+    public void shouldHaveCreatedAdditionalTemplateOutputsUsingOutputPattern() throws IOException {
+        String      expectedContent = "Test-6: Summary template: Something Else has [A4786 x4][E1628 x1]" + lineSeparator();
+        InputStream input           = getClass().getResourceAsStream("/templates-out/test6/exampleB-1-summary.txt");
+        assertThat(input).isNotNull();
+
+        String content = IOUtils.toString(input, StandardCharsets.UTF_8);
+        assertThat(content).isEqualTo(expectedContent);
+        assertThat(getClass().getResource("/templates-out/test6/exampleA-1-summary.txt")).isNotNull();
+    }
+}